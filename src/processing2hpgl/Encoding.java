@@ -0,0 +1,14 @@
+package processing2hpgl;
+
+/**
+ * How coordinates for polylines and jobs are sent to the plotter.
+ * Set it with Plotter.encoding().
+ */
+public enum Encoding {
+  /** absolute PA coordinates as decimals, works everywhere, the default */
+  ABSOLUTE,
+  /** relative PR moves in whole plotter units, works on HPGL1 plotters too */
+  RELATIVE,
+  /** HPGL/2 Polyline Encoded (PE), base 32 so it stays 7 bit safe. HPGL1 plotters get RELATIVE instead */
+  POLYLINE_ENCODED
+}
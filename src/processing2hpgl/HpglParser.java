@@ -0,0 +1,129 @@
+package processing2hpgl;
+
+/**
+ * A small streaming hpgl parser. Splits a command stream into two letter mnemonics
+ * and their numeric parameters, label text is passed through as is.
+ * Commands can be split across calls to feed(), the parser keeps its place.
+ */
+class HpglParser {
+
+  /**
+   * Gets a call for every complete command
+   */
+  interface Listener {
+    /**
+     * @param mnemonic the two letter command, upper case
+     * @param params the numeric parameters, only the first count are valid
+     * @param count how many parameters were given
+     * @param text the text of a LB command or the encoded body of a PE command, null for everything else
+     */
+    void command(String mnemonic, float[] params, int count, String text);
+  }
+
+  static final char ETX = (char) 3; //ends a label
+
+  Listener listener;
+  char first; //first letter of the mnemonic we're reading, 0 when between commands
+  String mnemonic; //set once both letters are in
+  float[] params = new float[16];
+  int count;
+  StringBuilder number = new StringBuilder();
+  StringBuilder text; //not null while inside a label or PE
+  char textEnd; //what ends the text, ETX for labels and ; for PE
+
+  HpglParser(Listener _listener) {
+    listener = _listener;
+  }
+
+  /**
+   * Parse some more of the stream
+   * @param hpgl the next chunk of commands
+   */
+  void feed(CharSequence hpgl) {
+    for (int i = 0; i < hpgl.length(); i++) {
+      feed(hpgl.charAt(i));
+    }
+  }
+
+  /**
+   * Parse one more character of the stream
+   * @param c the next character
+   */
+  void feed(char c) {
+    if (text != null) { //labels run until ETX and PE until ;, anything goes in between
+      if (c == textEnd) {
+        String label = text.toString();
+        text = null;
+        emit(label);
+      } else {
+        text.append(c);
+      }
+      return;
+    }
+
+    if (mnemonic == null) {
+      if (!isLetter(c)) return; //separators between commands
+      if (first == 0) {
+        first = Character.toUpperCase(c);
+        return;
+      }
+      mnemonic = "" + first + Character.toUpperCase(c);
+      first = 0;
+      count = 0;
+      if (mnemonic.equals("LB")) {
+        text = new StringBuilder();
+        textEnd = ETX;
+      } else if (mnemonic.equals("PE")) {
+        text = new StringBuilder();
+        textEnd = ';';
+      }
+      return;
+    }
+
+    if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+') {
+      if ((c == '-' || c == '+') && number.length() > 0 && !exponent()) endNumber(); //a sign starts a new number
+      number.append(c);
+    } else if ((c == 'E' || c == 'e') && number.length() > 0) { //java prints tiny floats like 1.0E-4
+      number.append(c);
+    } else if (c == ',' || c == ' ') {
+      endNumber();
+    } else if (c == ';' || c == '\n' || c == '\r') {
+      emit(null);
+    } else if (isLetter(c)) { //next command started without a terminator
+      emit(null);
+      feed(c);
+    }
+  }
+
+  //finish the current command
+  void emit(String label) {
+    endNumber();
+    String m = mnemonic;
+    mnemonic = null;
+    listener.command(m, params, count, label);
+  }
+
+  void endNumber() {
+    if (number.length() == 0) return;
+    if (count == params.length) {
+      float[] grown = new float[params.length * 2];
+      System.arraycopy(params, 0, grown, 0, params.length);
+      params = grown;
+    }
+    try {
+      params[count++] = Float.parseFloat(number.toString());
+    } catch (NumberFormatException e) {
+      count--; //a lone sign or dot, ignore it
+    }
+    number.setLength(0);
+  }
+
+  boolean exponent() {
+    char last = number.charAt(number.length() - 1);
+    return last == 'E' || last == 'e';
+  }
+
+  static boolean isLetter(char c) {
+    return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+  }
+}
@@ -0,0 +1,252 @@
+package processing2hpgl;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * A buffered plot job. Holds pen down paths in plotter units so they can be
+ * reordered, merged or split across sheets before anything is sent to the plotter.
+ * Fill a job with Plotter.beginJob() and Plotter.endJob(), or add paths directly.
+ *
+ * Once the paths take up more than the spill threshold they're moved to a memory mapped
+ * temp file, see SpillFile, so a job can grow past what fits on the heap.
+ * Only the pen of each path and where it is in the file stay in memory.
+ * Call close() when done with a big job to delete the file straight away.
+ *
+ * Big jobs are encoded in chunks on the common fork join pool, each chunk picks up the pen
+ * where the one before it leaves off so the result is the same as encoding it in one go.
+ */
+public class Job {
+  static long defaultSpillThreshold = 256L << 20; //bytes of vertices, 256MB
+  static final int PARALLEL_VERTICES = 1 << 17; //smaller jobs aren't worth splitting up to encode
+  static final int CHUNK_PATHS = 4096; //paths encoded in one go by one thread
+
+  ArrayList<float[]> paths = new ArrayList<float[]>(); //x,y pairs, pen is down for the whole path
+  int[] pens = new int[16]; //pen slot for each path
+  int vertexCount;
+
+  long spillThreshold;
+  SpillFile spill; //null until the job outgrows the threshold, then every path lives there
+
+  /**
+   * Job Constructor, spills to disk past the default threshold
+   */
+  public Job() {
+    this(defaultSpillThreshold);
+  }
+
+  /**
+   * Job Constructor
+   * @param _spillThreshold how many bytes of vertices to hold in memory before moving them to a temp file
+   */
+  public Job(long _spillThreshold) {
+    spillThreshold = _spillThreshold;
+  }
+
+  /**
+   * Set the threshold for jobs made after this, including the ones beginJob(), optimize() and Tiler make
+   * @param bytes how many bytes of vertices a job holds in memory before moving them to a temp file
+   */
+  public static void spillThreshold(long bytes) {
+    defaultSpillThreshold = bytes;
+  }
+
+  /**
+   * Add a pen down path
+   * @param xy the path as x,y pairs in plotter units
+   * @param pen the pen slot to draw it with
+   */
+  public void add(float[] xy, int pen) {
+    if (xy.length < 4) return; //need at least two points for a path
+
+    if (size() == pens.length) {
+      int[] grown = new int[pens.length * 2];
+      System.arraycopy(pens, 0, grown, 0, pens.length);
+      pens = grown;
+    }
+
+    pens[size()] = pen;
+    if (spill != null) {
+      spill.add(xy);
+    } else {
+      paths.add(xy);
+    }
+    vertexCount += xy.length / 2;
+
+    if (spill == null && (long) vertexCount * 8 > spillThreshold) {
+      //move everything to disk, from here on paths go straight there
+      spill = new SpillFile();
+      for (float[] p : paths) spill.add(p);
+      paths = new ArrayList<float[]>();
+    }
+  }
+
+  /**
+   * Add all the paths of another job to the end of this one
+   * @param other the job to append
+   */
+  public void addAll(Job other) {
+    for (int i = 0; i < other.size(); i++) {
+      add(other.path(i), other.pen(i));
+    }
+  }
+
+  /**
+   * @return the number of paths in the job
+   */
+  public int size() {
+    return spill != null ? spill.size() : paths.size();
+  }
+
+  /**
+   * @return true if the paths have been moved to a temp file
+   */
+  public boolean spilled() {
+    return spill != null;
+  }
+
+  /**
+   * Delete the temp file of a spilled job, the job is empty afterwards
+   */
+  public void close() {
+    if (spill != null) spill.delete();
+    spill = null;
+    paths = new ArrayList<float[]>();
+    vertexCount = 0;
+  }
+
+  /**
+   * @return the total number of vertices in the job
+   */
+  public int vertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * @param i which path
+   * @return the x,y pairs of a path, a fresh copy if the job has spilled
+   */
+  public float[] path(int i) {
+    return spill != null ? spill.path(i) : paths.get(i);
+  }
+
+  /**
+   * @param i which path
+   * @return the pen slot of a path
+   */
+  public int pen(int i) {
+    return pens[i];
+  }
+
+  /**
+   * Reorder the paths to cut down on pen up travel, see PathOptimizer
+   * @return a new, optimized job
+   */
+  public Job optimize() {
+    return PathOptimizer.optimize(this);
+  }
+
+  /**
+   * Build the hpgl for the whole job, pen changes included
+   * @return a string of hpgl commands
+   */
+  public String toHpgl() {
+    return toHpgl(Encoding.ABSOLUTE);
+  }
+
+  /**
+   * Build the hpgl for the whole job, pen changes included
+   * @param encoding how to write the coordinates
+   * @return a string of hpgl commands
+   */
+  public String toHpgl(Encoding encoding) {
+    return toHpgl(encoding, null);
+  }
+
+  /**
+   * Build the hpgl for the whole job, pen changes and speed changes included
+   * @param encoding how to write the coordinates
+   * @param planner picks the speed for each segment, null leaves the speed alone
+   * @return a string of hpgl commands
+   */
+  public String toHpgl(Encoding encoding, VelocityPlanner planner) {
+    StringBuilder statement = new StringBuilder(vertexCount * (encoding == Encoding.ABSOLUTE ? 12 : 4));
+    encode(encoding, planner, statement, Integer.MAX_VALUE, null);
+    return statement.toString();
+  }
+
+  //encode into statement, handing it to sink and starting over whenever it gets to flushAt characters.
+  //Every piece ends outside of PE, the plotter may be sent other commands between pieces
+  void encode(Encoding encoding, VelocityPlanner planner, StringBuilder statement, int flushAt, Consumer<String> sink) {
+    PathEncoder encoder = new PathEncoder(encoding, statement, planner);
+    int threads = ForkJoinPool.getCommonPoolParallelism();
+    boolean pe = encoding == Encoding.POLYLINE_ENCODED;
+
+    if (vertexCount < PARALLEL_VERTICES || threads < 2) {
+      for (int i = 0; i < size(); i++) {
+        encoder.pen(pens[i]); //only swaps pens when it has to
+        float[] xy = path(i);
+        encoder.path(xy, xy.length);
+
+        if (statement.length() >= flushAt) {
+          encoder.closePE(); //opened again by the next path
+          sink.accept(statement.toString());
+          statement.setLength(0);
+        }
+      }
+    } else {
+      //chunks are encoded side by side a wave at a time, then joined in order
+      int chunks = (size() + CHUNK_PATHS - 1) / CHUNK_PATHS;
+      String[] parts = new String[threads * 4];
+      boolean reopen = false; //PE was closed for a flush, the chunk after it carries on inside PE
+
+      for (int first = 0; first < chunks; first += parts.length) {
+        int wave = first;
+        int count = Math.min(parts.length, chunks - first);
+        IntStream.range(0, count).parallel().forEach(c -> parts[c] = encodeChunk(encoding, planner, (wave + c) * CHUNK_PATHS));
+
+        for (int c = 0; c < count; c++) {
+          String part = parts[c];
+          parts[c] = null;
+          if (!reopen) {
+            statement.append(part);
+          } else if (part.charAt(0) == ';') { //it starts by closing PE for a pen or speed change, already done
+            statement.append(part, 1, part.length());
+          } else {
+            statement.append(PathEncoder.OPEN_PE).append(part);
+          }
+          reopen = false;
+
+          if (statement.length() >= flushAt) {
+            if (pe) statement.append(';'); //every chunk leaves PE open
+            sink.accept(statement.toString());
+            statement.setLength(0);
+            reopen = pe;
+          }
+        }
+      }
+      encoder.resume(path(size() - 1), pens[size() - 1]);
+      if (reopen) encoder.inPE = false; //closed by the last flush
+    }
+
+    encoder.finish();
+    if (sink != null) sink.accept(statement.toString());
+  }
+
+  //encode CHUNK_PATHS paths starting at from, carrying on from the path before it
+  String encodeChunk(Encoding encoding, VelocityPlanner planner, int from) {
+    int to = Math.min(from + CHUNK_PATHS, size());
+    StringBuilder out = new StringBuilder();
+    PathEncoder encoder = new PathEncoder(encoding, out, planner);
+    if (from > 0) encoder.resume(path(from - 1), pens[from - 1]);
+
+    for (int i = from; i < to; i++) {
+      encoder.pen(pens[i]);
+      float[] xy = path(i);
+      encoder.path(xy, xy.length);
+    }
+    return out.toString();
+  }
+}
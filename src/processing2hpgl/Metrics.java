@@ -0,0 +1,345 @@
+package processing2hpgl;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runtime numbers for a plotter: commands and bytes sent, throughput, bytes waiting in the plotter's buffer,
+ * pen down and pen up travel, pen lifts, pen swaps, and how long encoding and sending take.
+ * Counters are lock free so they can be bumped from any thread without slowing things down.
+ * Following the pen means parsing everything that's sent, that happens on a background thread
+ * so the drawing thread only hands the string over. The pen numbers catch up before they're read.
+ * Turn them on with Plotter.enableMetrics().
+ */
+public class Metrics {
+  final LongAdder commands = new LongAdder();
+  final LongAdder bytes = new LongAdder();
+  final LongAdder penLifts = new LongAdder();
+  final LongAdder penSwaps = new LongAdder();
+  final DoubleAdder penDownDistance = new DoubleAdder(); //plotter units
+  final DoubleAdder penUpDistance = new DoubleAdder();
+  volatile long queueDepth = -1; //bytes in the plotter's buffer at the last status poll, -1 without a monitor
+
+  /** time spent building hpgl strings */
+  public final Histogram encode = new Histogram();
+  /** time spent handing hpgl to the port */
+  public final Histogram transmit = new Histogram();
+
+  final long started = System.nanoTime();
+  ScheduledExecutorService snapshots;
+
+  //sent hpgl waiting to be parsed, in order
+  final ConcurrentLinkedQueue<String> backlog = new ConcurrentLinkedQueue<String>();
+  final AtomicLong unparsed = new AtomicLong();
+  volatile Thread parsing;
+
+  //pen state, only touched by the parsing thread
+  final HpglParser parser = new HpglParser(this::command);
+  float penX, penY;
+  boolean penDown, relative;
+  int pen = -1;
+
+  /**
+   * Count a chunk of hpgl on its way to the plotter, it's parsed later on the metrics thread
+   * @param hpgl the commands being sent
+   */
+  void sent(String hpgl) {
+    bytes.add(hpgl.length());
+    unparsed.incrementAndGet();
+    backlog.add(hpgl);
+
+    Thread t = parsing;
+    if (t == null) t = startParsing();
+    LockSupport.unpark(t);
+  }
+
+  /**
+   * Count status queries on their way to the plotter, they're bytes on the line but not drawing
+   * @param length how many bytes
+   */
+  void polled(int length) {
+    bytes.add(length);
+  }
+
+  synchronized Thread startParsing() {
+    if (parsing == null) {
+      Thread t = new Thread(this::parse, "plotter-metrics-parser");
+      t.setDaemon(true); //don't keep the sketch alive
+      t.start();
+      parsing = t;
+    }
+    return parsing;
+  }
+
+  //parsing thread, follows the pen through everything that was sent
+  void parse() {
+    while (true) {
+      String hpgl = backlog.poll();
+      if (hpgl == null) {
+        LockSupport.park(this);
+        continue;
+      }
+      parser.feed(hpgl);
+      unparsed.decrementAndGet();
+    }
+  }
+
+  //wait for the parsing thread to get through everything sent so far
+  void settle() {
+    while (unparsed.get() > 0) LockSupport.parkNanos(100000);
+  }
+
+  //follows the pen through the stream to work out travel, lifts and swaps
+  void command(String mnemonic, float[] p, int count, String text) {
+    commands.increment();
+
+    switch (mnemonic) {
+      case "IN":
+        penX = penY = 0;
+        penDown = relative = false;
+        break;
+      case "PU":
+        if (penDown) penLifts.increment();
+        penDown = false;
+        move(p, count);
+        break;
+      case "PD":
+        penDown = true;
+        move(p, count);
+        break;
+      case "PA":
+        relative = false;
+        move(p, count);
+        break;
+      case "PR":
+        relative = true;
+        move(p, count);
+        break;
+      case "PE":
+        if (text != null) PathEncoder.decode(text, Math.round(penX), Math.round(penY), this::pe);
+        break;
+      case "SP":
+        int slot = count > 0 ? (int) p[0] : 0;
+        if (slot != pen && slot != 0) penSwaps.increment();
+        pen = slot;
+        break;
+      case "CI":
+        if (count > 0) penDownDistance.add(2 * Math.PI * Math.abs(p[0]));
+        break;
+      case "ER":
+        if (count > 1) penDownDistance.add(2 * (Math.abs(p[0]) + Math.abs(p[1])));
+        break;
+      case "AA":
+        if (count > 2) penDownDistance.add(Math.hypot(penX - p[0], penY - p[1]) * Math.toRadians(Math.abs(p[2])));
+        break;
+    }
+  }
+
+  void pe(int x, int y, boolean down) {
+    if (penDown && !down) penLifts.increment();
+    penDown = down;
+    double distance = Math.hypot(x - penX, y - penY);
+    if (down) {
+      penDownDistance.add(distance);
+    } else {
+      penUpDistance.add(distance);
+    }
+    penX = x;
+    penY = y;
+  }
+
+  void move(float[] p, int count) {
+    double distance = 0;
+    for (int i = 0; i + 1 < count; i += 2) {
+      float x = relative ? penX + p[i] : p[i];
+      float y = relative ? penY + p[i + 1] : p[i + 1];
+      distance += Math.hypot(x - penX, y - penY);
+      penX = x;
+      penY = y;
+    }
+    if (penDown) {
+      penDownDistance.add(distance);
+    } else {
+      penUpDistance.add(distance);
+    }
+  }
+
+  /**
+   * @return number of hpgl commands sent
+   */
+  public long commands() {
+    settle();
+    return commands.sum();
+  }
+
+  /**
+   * @return number of bytes sent
+   */
+  public long bytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * @return bytes waiting in the plotter's buffer as of the last status poll, -1 unless monitorStatus() is running
+   */
+  public long queueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return average bytes per second since metrics were turned on
+   */
+  public double bytesPerSecond() {
+    double seconds = (System.nanoTime() - started) / 1e9;
+    return seconds > 0 ? bytes.sum() / seconds : 0;
+  }
+
+  /**
+   * @return distance drawn with the pen down, in plotter units
+   */
+  public double penDownDistance() {
+    settle();
+    return penDownDistance.sum();
+  }
+
+  /**
+   * @return distance traveled with the pen up, in plotter units
+   */
+  public double penUpDistance() {
+    settle();
+    return penUpDistance.sum();
+  }
+
+  /**
+   * @return number of times the pen was lifted
+   */
+  public long penLifts() {
+    settle();
+    return penLifts.sum();
+  }
+
+  /**
+   * @return number of pen changes
+   */
+  public long penSwaps() {
+    settle();
+    return penSwaps.sum();
+  }
+
+  /**
+   * Everything as a json object
+   * @return a json string
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"commands\":").append(commands());
+    json.append(",\"bytes\":").append(bytes());
+    json.append(",\"queueDepth\":").append(queueDepth());
+    json.append(",\"bytesPerSecond\":").append(String.format(Locale.ROOT, "%.1f", bytesPerSecond()));
+    json.append(",\"penDownDistance\":").append(String.format(Locale.ROOT, "%.1f", penDownDistance()));
+    json.append(",\"penUpDistance\":").append(String.format(Locale.ROOT, "%.1f", penUpDistance()));
+    json.append(",\"penLifts\":").append(penLifts());
+    json.append(",\"penSwaps\":").append(penSwaps());
+    json.append(",\"encode\":").append(encode.toJson());
+    json.append(",\"transmit\":").append(transmit.toJson());
+    return json.append('}').toString();
+  }
+
+  /**
+   * Hand a json snapshot to a callback every so often, on a background thread
+   * @param millis time between snapshots
+   * @param out gets each snapshot, println works fine
+   */
+  public synchronized void startSnapshots(long millis, Consumer<String> out) {
+    stopSnapshots();
+    snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "plotter-metrics");
+      t.setDaemon(true); //don't keep the sketch alive
+      return t;
+    });
+    snapshots.scheduleAtFixedRate(() -> out.accept(toJson()), millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop the periodic snapshots
+   */
+  public synchronized void stopSnapshots() {
+    if (snapshots != null) snapshots.shutdown();
+    snapshots = null;
+  }
+
+  /**
+   * A latency histogram with power of two buckets in nanoseconds, lock free
+   */
+  public static class Histogram {
+    final AtomicLongArray buckets = new AtomicLongArray(64); //bucket i holds times below 2^i ns
+    final LongAdder count = new LongAdder();
+    final LongAdder total = new LongAdder();
+    final AtomicLong max = new AtomicLong();
+
+    /**
+     * Add one timing
+     * @param nanos how long it took
+     */
+    public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+      count.increment();
+      total.add(nanos);
+      long m;
+      while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { } //only loops when racing a new max
+    }
+
+    /**
+     * @return number of timings
+     */
+    public long count() {
+      return count.sum();
+    }
+
+    /**
+     * @return average time in nanoseconds
+     */
+    public double mean() {
+      long c = count.sum();
+      return c == 0 ? 0 : (double) total.sum() / c;
+    }
+
+    /**
+     * @return longest time in nanoseconds
+     */
+    public long max() {
+      return max.get();
+    }
+
+    /**
+     * @param fraction which percentile, 0.99 for p99
+     * @return an upper bound on that percentile, in nanoseconds
+     */
+    public long percentile(double fraction) {
+      long c = count.sum();
+      if (c == 0) return 0;
+      long target = (long) Math.ceil(c * fraction);
+      long seen = 0;
+      for (int i = 0; i < 64; i++) {
+        seen += buckets.get(i);
+        if (seen >= target) return i == 0 ? 0 : (i < 63 ? Math.min(1L << i, max()) : max());
+      }
+      return max();
+    }
+
+    String toJson() {
+      return "{\"count\":" + count() + ",\"meanNanos\":" + (long) mean() + ",\"p50Nanos\":" + percentile(0.5)
+        + ",\"p99Nanos\":" + percentile(0.99) + ",\"maxNanos\":" + max() + "}";
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package processing2hpgl;
+
+/**
+ * Writes a run of pen down paths as hpgl in one of the Encodings.
+ * Keeps track of the pen so relative encodings only send the difference from the last point.
+ * Call pen() and path() as many times as needed, then finish() to leave the plotter
+ * pen up and in absolute mode like every other command expects.
+ */
+class PathEncoder {
+  static final String OPEN_PE = "PE7"; //7 bit mode, base 32 keeps everything plain ascii
+
+  final Encoding encoding;
+  final StringBuilder out;
+  boolean started; //false until the first path, where we don't know where the pen is
+  boolean inPE; //inside an open PE command
+  int penX, penY; //where the pen is, whole plotter units, relative encodings only
+  int pen = -1;
+
+  VelocityPlanner planner; //picks a speed for each segment when set
+  int speedClass = -1; //speed we last sent, -1 for the plotter's default
+  int[] classes = new int[64];
+
+  PathEncoder(Encoding _encoding, StringBuilder _out) {
+    encoding = _encoding;
+    out = _out;
+  }
+
+  PathEncoder(Encoding _encoding, StringBuilder _out, VelocityPlanner _planner) {
+    this(_encoding, _out);
+    planner = _planner;
+  }
+
+  /**
+   * Pick up where another encoder left off after writing a path, so a job can be
+   * encoded in pieces that join up exactly as if it had been done in one go
+   * @param last the last path the other encoder wrote
+   * @param lastPen the pen it was drawn with
+   */
+  void resume(float[] last, int lastPen) {
+    pen = lastPen;
+    started = true;
+    penX = Math.round(last[last.length - 2]);
+    penY = Math.round(last[last.length - 1]);
+    inPE = encoding == Encoding.POLYLINE_ENCODED; //every path leaves PE open
+
+    if (planner != null) { //the speed of its last segment is what the plotter is at
+      int segments = last.length / 2 - 1;
+      if (classes.length < segments) classes = new int[segments * 2];
+      planner.plan(last, last.length, classes);
+      speedClass = classes[segments - 1];
+    }
+  }
+
+  /**
+   * Change pens, does nothing if the pen is already in
+   * @param slot the pen slot
+   */
+  void pen(int slot) {
+    if (slot == pen) return;
+    pen = slot;
+    closePE();
+    out.append("SP").append(slot).append(';');
+  }
+
+  /**
+   * Add a path, pen up to the start and pen down through the rest
+   * @param xy x,y pairs in plotter units
+   * @param length how many floats of xy to use
+   */
+  void path(float[] xy, int length) {
+    moveTo(xy[0], xy[1]);
+
+    if (planner == null) {
+      draw(xy, 2, length);
+    } else {
+      //split the path into runs that share a speed
+      int segments = length / 2 - 1;
+      if (classes.length < segments) classes = new int[segments * 2];
+      planner.plan(xy, length, classes);
+
+      int from = 0;
+      while (from < segments) {
+        int to = from;
+        while (to + 1 < segments && classes[to + 1] == classes[from]) to++;
+        speed(classes[from]);
+        draw(xy, (from + 1) * 2, (to + 2) * 2);
+        from = to + 1;
+      }
+      if (segments <= 0) draw(xy, 2, length);
+    }
+    started = true;
+  }
+
+  //pen up to x,y
+  void moveTo(float fx, float fy) {
+    switch (encoding) {
+      case ABSOLUTE:
+        out.append("PU").append(fx).append(',').append(fy).append(';');
+        return;
+
+      case RELATIVE:
+        int x = Math.round(fx), y = Math.round(fy);
+        if (!started) {
+          out.append("PU").append(x).append(',').append(y).append(";PR;"); //only absolute move we need
+        } else {
+          out.append("PU").append(x - penX).append(',').append(y - penY).append(';');
+        }
+        penX = x;
+        penY = y;
+        return;
+
+      case POLYLINE_ENCODED:
+        openPE();
+        x = Math.round(fx);
+        y = Math.round(fy);
+        if (!started) {
+          out.append("<=");
+          encode(x);
+          encode(y);
+        } else {
+          out.append('<');
+          encode(x - penX);
+          encode(y - penY);
+        }
+        penX = x;
+        penY = y;
+    }
+  }
+
+  //pen down through the points in xy from index from up to to
+  void draw(float[] xy, int from, int to) {
+    switch (encoding) {
+      case ABSOLUTE:
+        out.append("PD");
+        for (int j = from; j < to; j += 2) {
+          if (j > from) out.append(',');
+          out.append(xy[j]).append(',').append(xy[j + 1]);
+        }
+        out.append(';');
+        return;
+
+      case RELATIVE:
+        out.append("PD");
+        deltas(xy, from, to, ',', false);
+        out.append(';');
+        return;
+
+      case POLYLINE_ENCODED:
+        openPE();
+        deltas(xy, from, to, (char) 0, true);
+    }
+  }
+
+  //change speed if the class is different from the one we're at
+  void speed(int speedClass) {
+    if (speedClass == this.speedClass) return;
+    this.speedClass = speedClass;
+    closePE();
+    out.append("VS").append(planner.speed(speedClass)).append(';');
+  }
+
+  //relative moves through some points, skipping ones that round to nothing
+  void deltas(float[] xy, int from, int to, char separator, boolean pe) {
+    boolean any = false;
+    for (int j = from; j < to; j += 2) {
+      int x = Math.round(xy[j]), y = Math.round(xy[j + 1]);
+      int dx = x - penX, dy = y - penY;
+      boolean last = j + 2 >= to;
+      if (dx == 0 && dy == 0 && (any || !last)) continue; //keep one so a dot still gets drawn
+
+      if (pe) {
+        encode(dx);
+        encode(dy);
+      } else {
+        if (any) out.append(separator);
+        out.append(dx).append(separator).append(dy);
+      }
+      any = true;
+      penX = x;
+      penY = y;
+    }
+  }
+
+  /**
+   * PE number encoding, sign goes in the low bit, then base 32 digits least significant first.
+   * The last digit is shifted up so the plotter knows the number is done
+   */
+  void encode(int value) {
+    long n = value >= 0 ? (long) value * 2 : (-(long) value) * 2 + 1;
+    while (n >= 32) {
+      out.append((char) (63 + (n & 31)));
+      n >>= 5;
+    }
+    out.append((char) (95 + n));
+  }
+
+  /**
+   * Gets each move out of a PE command
+   */
+  interface Move {
+    void move(int x, int y, boolean penDown);
+  }
+
+  /**
+   * Walk through the body of a PE command, everything between PE and ;
+   * Fractional bits aren't handled, coordinates come out in whole plotter units
+   * @param body the encoded body
+   * @param x where the pen starts
+   * @param y where the pen starts
+   * @param move gets every move, absolute
+   */
+  static void decode(CharSequence body, int x, int y, Move move) {
+    boolean sevenBit = false, penUp = false, absolute = false;
+    int i = 0;
+    long[] number = new long[2]; //value, index after it
+
+    while (i < body.length()) {
+      char c = body.charAt(i);
+      if (c == '7') {
+        sevenBit = true;
+        i++;
+      } else if (c == '<') {
+        penUp = true;
+        i++;
+      } else if (c == '=') {
+        absolute = true;
+        i++;
+      } else if (c == ':' || c == '>') { //pen or fractional bits, skip the value
+        i = (int) decodeNumber(body, i + 1, sevenBit, number)[1];
+      } else {
+        int dx = (int) decodeNumber(body, i, sevenBit, number)[0];
+        i = (int) number[1];
+        if (i >= body.length()) break; //half a pair
+        int dy = (int) decodeNumber(body, i, sevenBit, number)[0];
+        i = (int) number[1];
+
+        x = absolute ? dx : x + dx;
+        y = absolute ? dy : y + dy;
+        move.move(x, y, !penUp);
+        penUp = absolute = false;
+      }
+    }
+  }
+
+  //read one encoded number starting at i, result goes in number as value, next index
+  static long[] decodeNumber(CharSequence body, int i, boolean sevenBit, long[] number) {
+    int base = sevenBit ? 32 : 64;
+    int last = sevenBit ? 95 : 191; //digits from here up end the number
+    long n = 0, place = 1;
+
+    while (i < body.length()) {
+      int c = body.charAt(i++);
+      if (c >= last) {
+        n += (c - last) * place;
+        break;
+      }
+      n += (c - 63) * place;
+      place *= base;
+    }
+
+    number[0] = (n & 1) == 0 ? n / 2 : -(n / 2);
+    number[1] = i;
+    return number;
+  }
+
+  void openPE() {
+    if (!inPE) out.append(OPEN_PE);
+    inPE = true;
+  }
+
+  void closePE() {
+    if (inPE) out.append(';');
+    inPE = false;
+  }
+
+  /**
+   * Pen up, back to absolute mode and the default speed
+   */
+  void finish() {
+    finish(true);
+  }
+
+  /**
+   * Pen up and back to absolute mode
+   * @param resetSpeed false to leave the plotter at the last speed sent, speedClass says which
+   */
+  void finish(boolean resetSpeed) {
+    closePE();
+    if (resetSpeed && speedClass != -1) {
+      out.append("VS;");
+      speedClass = -1;
+    }
+    out.append(encoding == Encoding.RELATIVE && started ? "PU;PA;" : "PU;");
+  }
+}
@@ -0,0 +1,237 @@
+package processing2hpgl;
+
+/**
+ * Reorders the paths of a job to cut down on pen up travel.
+ * Greedy nearest neighbour, paths can be drawn in either direction,
+ * and a path that starts where the last one ended is merged so the pen stays down.
+ * Endpoints are kept in a uniform grid so each lookup only checks nearby cells,
+ * which keeps big jobs fast. Only the endpoints are held in memory, each path is read once
+ * when it's placed.
+ *
+ * A job that has spilled to disk is done BLOCK_PATHS paths at a time, in the order they were added,
+ * so the endpoints and grid on the heap are only ever one block's worth and the paths are read from
+ * one stretch of the file. Paths are only reordered within their block. The pen and file offset of
+ * every path, in the job and in the result, still stay on the heap, about 24 bytes a path.
+ */
+class PathOptimizer {
+  static final float MERGE_TOLERANCE = 0.5f; //plotter units, endpoints closer than this are joined
+  static final int MAX_MERGED = 1 << 16; //floats, merged paths are cut here so one can't swallow a huge job
+  static final int BLOCK_PATHS = 1 << 18; //paths ordered together once a job has spilled
+
+  /**
+   * Optimize a job. Pens are kept together and plotted in the order they first show up.
+   * @param job the job to optimize
+   * @return a new job, the given job is left alone
+   */
+  static Job optimize(Job job) {
+    Job result = new Job(job.spillThreshold);
+    int n = job.size();
+    if (n == 0) return result;
+
+    //the pens in order of appearance
+    int[] pens = new int[8];
+    int penCount = 0;
+    for (int i = 0; i < n; i++) {
+      int pen = job.pen(i);
+      if (indexOf(pens, penCount, pen) >= 0) continue;
+      if (penCount == pens.length) {
+        int[] grown = new int[pens.length * 2];
+        System.arraycopy(pens, 0, grown, 0, penCount);
+        pens = grown;
+      }
+      pens[penCount++] = pen;
+    }
+
+    int block = job.spilled() ? BLOCK_PATHS : n;
+    int[] order = new int[Math.min(block, n)];
+    float x = 0, y = 0;
+
+    for (int p = 0; p < penCount; p++) {
+      int pen = pens[p];
+      for (int from = 0; from < n; from += block) {
+        int to = Math.min(from + block, n);
+        int count = 0;
+        for (int i = from; i < to; i++) {
+          if (job.pen(i) == pen) order[count++] = i;
+        }
+        if (count == 0) continue;
+
+        float[] end = optimizePen(job, order, count, pen, x, y, result);
+        x = end[0];
+        y = end[1];
+      }
+    }
+
+    return result;
+  }
+
+  static int indexOf(int[] values, int count, int value) {
+    for (int i = 0; i < count; i++) {
+      if (values[i] == value) return i;
+    }
+    return -1;
+  }
+
+  //order one pen's worth of paths, starting from x,y, appending to result. returns where the pen ends up
+  static float[] optimizePen(Job job, int[] ids, int count, int pen, float x, float y, Job result) {
+    //endpoints of each path as start x,y end x,y, and their bounding box to size the grid
+    float[] ends = new float[count * 4];
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int k = 0; k < count; k++) {
+      float[] xy = job.path(ids[k]);
+      int last = xy.length - 2;
+      ends[k * 4] = xy[0];
+      ends[k * 4 + 1] = xy[1];
+      ends[k * 4 + 2] = xy[last];
+      ends[k * 4 + 3] = xy[last + 1];
+      minX = Math.min(minX, Math.min(xy[0], xy[last]));
+      maxX = Math.max(maxX, Math.max(xy[0], xy[last]));
+      minY = Math.min(minY, Math.min(xy[1], xy[last + 1]));
+      maxY = Math.max(maxY, Math.max(xy[1], xy[last + 1]));
+    }
+
+    //aim for a couple of endpoints per cell
+    float w = Math.max(maxX - minX, 1);
+    float h = Math.max(maxY - minY, 1);
+    float cell = (float) Math.max(Math.sqrt(w * h / Math.max(count, 1)), 1);
+    int cols = Math.min((int) (w / cell) + 1, 4096);
+    int rows = Math.min((int) (h / cell) + 1, 4096);
+    float cellW = w / cols + 1e-3f;
+    float cellH = h / rows + 1e-3f;
+
+    //bucket the endpoints, entry = k * 2 for the start, k * 2 + 1 for the end
+    int[] cellCount = new int[cols * rows];
+    int[] cellOf = new int[count * 2];
+    for (int e = 0; e < count * 2; e++) {
+      cellOf[e] = cellIndex(ends[e * 2], ends[e * 2 + 1], minX, minY, cellW, cellH, cols, rows);
+      cellCount[cellOf[e]]++;
+    }
+
+    int[] cellStart = new int[cols * rows + 1];
+    for (int c = 0; c < cols * rows; c++) {
+      cellStart[c + 1] = cellStart[c] + cellCount[c];
+    }
+    int[] entries = new int[count * 2];
+    int[] fill = new int[cols * rows];
+    for (int e = 0; e < count * 2; e++) {
+      int c = cellOf[e];
+      entries[cellStart[c] + fill[c]++] = e;
+    }
+    //cellCount is now the number of live entries in each cell, used entries get swapped out the end
+    boolean[] used = new boolean[count];
+
+    float[] current = null; //the path we're adding to, kept open so touching paths can be merged
+    int currentLength = 0;
+
+    for (int step = 0; step < count; step++) {
+      int best = nearest(ends, x, y, entries, cellStart, cellCount, used, minX, minY, cellW, cellH, cols, rows);
+      int k = best / 2;
+      boolean reversed = (best & 1) == 1;
+      used[k] = true;
+
+      float[] xy = job.path(ids[k]);
+      float sx = reversed ? xy[xy.length - 2] : xy[0];
+      float sy = reversed ? xy[xy.length - 1] : xy[1];
+
+      if (current != null && Math.abs(sx - x) <= MERGE_TOLERANCE && Math.abs(sy - y) <= MERGE_TOLERANCE) {
+        //touching, keep the pen down and skip the duplicate point
+        if (currentLength + xy.length - 2 > MAX_MERGED) { //long enough, hand it over and carry on from the same point
+          result.add(trim(current, currentLength), pen);
+          current = new float[xy.length];
+          current[0] = x;
+          current[1] = y;
+          currentLength = 2;
+        }
+        if (currentLength + xy.length - 2 > current.length) {
+          float[] grown = new float[Math.max(current.length * 2, currentLength + xy.length)];
+          System.arraycopy(current, 0, grown, 0, currentLength);
+          current = grown;
+        }
+        currentLength = copy(xy, reversed, 1, current, currentLength);
+      } else {
+        if (current != null) result.add(trim(current, currentLength), pen);
+        current = new float[xy.length];
+        currentLength = copy(xy, reversed, 0, current, 0);
+      }
+
+      x = current[currentLength - 2];
+      y = current[currentLength - 1];
+    }
+
+    if (current != null) result.add(trim(current, currentLength), pen);
+    return new float[] { x, y };
+  }
+
+  //find the closest unused endpoint to x,y by searching rings of cells outward
+  static int nearest(float[] ends, float x, float y, int[] entries, int[] cellStart, int[] cellCount, boolean[] used,
+                     float minX, float minY, float cellW, float cellH, int cols, int rows) {
+    int cx = clamp((int) ((x - minX) / cellW), cols);
+    int cy = clamp((int) ((y - minY) / cellH), rows);
+    int best = -1;
+    float bestDist = Float.MAX_VALUE;
+    int maxRing = Math.max(cols, rows);
+
+    for (int ring = 0; ring <= maxRing; ring++) {
+      for (int gy = cy - ring; gy <= cy + ring; gy++) {
+        if (gy < 0 || gy >= rows) continue;
+        boolean edgeRow = gy == cy - ring || gy == cy + ring;
+        int step = edgeRow ? 1 : Math.max(ring * 2, 1);
+        for (int gx = cx - ring; gx <= cx + ring; gx += step) {
+          if (gx < 0 || gx >= cols) continue;
+          int c = gy * cols + gx;
+          int start = cellStart[c];
+          for (int i = 0; i < cellCount[c]; i++) {
+            int e = entries[start + i];
+            if (used[e / 2]) { //drop used entries as we find them
+              entries[start + i] = entries[start + cellCount[c] - 1];
+              cellCount[c]--;
+              i--;
+              continue;
+            }
+            float dx = ends[e * 2] - x;
+            float dy = ends[e * 2 + 1] - y;
+            float d = dx * dx + dy * dy;
+            if (d < bestDist) {
+              bestDist = d;
+              best = e;
+            }
+          }
+        }
+      }
+
+      //anything in the next ring is at least this far away
+      if (best != -1) {
+        float reach = ring * Math.min(cellW, cellH);
+        if (bestDist <= reach * reach) break;
+      }
+    }
+
+    return best;
+  }
+
+  static int cellIndex(float x, float y, float minX, float minY, float cellW, float cellH, int cols, int rows) {
+    return clamp((int) ((y - minY) / cellH), rows) * cols + clamp((int) ((x - minX) / cellW), cols);
+  }
+
+  static int clamp(int i, int size) {
+    return i < 0 ? 0 : (i >= size ? size - 1 : i);
+  }
+
+  //copy a path into dest, optionally backwards, skipping the first few points
+  static int copy(float[] xy, boolean reversed, int skip, float[] dest, int at) {
+    int points = xy.length / 2;
+    for (int i = skip; i < points; i++) {
+      int p = reversed ? (points - 1 - i) * 2 : i * 2;
+      dest[at++] = xy[p];
+      dest[at++] = xy[p + 1];
+    }
+    return at;
+  }
+
+  static float[] trim(float[] xy, int length) {
+    if (xy.length == length) return xy;
+    float[] trimmed = new float[length];
+    System.arraycopy(xy, 0, trimmed, 0, length);
+    return trimmed;
+  }
+}
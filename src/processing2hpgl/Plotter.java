@@ -22,10 +22,24 @@ public class Plotter {
   boolean DEBUG; //for debugging
 
   //class properties
-  Serial port;
+  Port port;
   int xMin, yMin, xMax, yMax;
   float scale; //this is used to stay in proportion with processing
 
+  Job job; //when not null, drawing commands are collected here instead of being sent
+  int pen = 1; //current pen slot, jobs remember it for each path
+  Metrics metrics; //null until enableMetrics() is called
+  Trace trace; //where debug output goes, null when not debugging
+  StatusMonitor status; //null until monitorStatus() is called
+  Encoding encoding = Encoding.ABSOLUTE; //how polylines and jobs are sent
+  boolean hpgl2; //does the plotter understand HPGL/2
+  boolean strokeFont; //draw labels as paths with StrokeFont instead of LB
+  VelocityPlanner velocity; //picks pen speeds for polylines and jobs, null leaves the speed alone
+  int speedClass = -1; //speed class the plotter was left at by the planner, -1 for its default
+
+  PMatrix2D matrix = new PMatrix2D(); //applied to every point before it's scaled to the plotter
+  ArrayList<PMatrix2D> matrixStack = new ArrayList<PMatrix2D>();
+
   /**
    * Plotter Constructor, setup the 
    *
@@ -39,15 +53,34 @@ public class Plotter {
    * @param _debug a boolean, true will print a bunch of helpful messages.
    */
   public Plotter(PApplet theParent, Serial _port,  int _xMin, int _yMin, int _xMax, int _yMax, float _scale, boolean _debug) {
+    this(theParent, Port.of(_port), _xMin, _yMin, _xMax, _yMax, _scale, _debug);
+  }
+
+  /**
+   * Plotter Constructor for plotters that aren't on a serial port
+   *
+   * @param theParent the parent PApplet
+   * @param _port where to send hpgl and read replies from
+   * @param _xMin the minimum x position for the plotter
+   * @param _yMin the minimum y position for the plotter
+   * @param _xMax the maximum x position for the plotter
+   * @param _yMax the maximum y postion for the plotter
+   * @param _scale the scale factor for the printer
+   * @param _debug a boolean, true will print a bunch of helpful messages.
+   */
+  public Plotter(PApplet theParent, Port _port,  int _xMin, int _yMin, int _xMax, int _yMax, float _scale, boolean _debug) {
+    myParent = theParent;
     port = _port;
     xMin = _xMin;
     yMin = _yMin;
     xMax = _xMax;
     yMax = _yMax;
     scale = _scale;
-    write("IN;"); //init the printer
 
     DEBUG = _debug;
+    if (DEBUG) trace = new Trace(8192); //logs commands to the console in the background
+
+    write("IN;"); //init the printer
   }
 
   /**
@@ -56,7 +89,319 @@ public class Plotter {
    * @param hpgl the string to send to the plotter
    */
   public void write(String hpgl) {
-    port.write(hpgl);
+    if (status != null) status.beforeWrite(); //holds off while the plotter reports an error
+
+    if (metrics == null) {
+      port.write(hpgl);
+    } else {
+      long start = System.nanoTime();
+      port.write(hpgl);
+      metrics.transmit.record(System.nanoTime() - start);
+      metrics.sent(hpgl);
+    }
+
+    if (status != null) status.afterWrite();
+  }
+
+  /**
+   * Start watching the plotter's status, errors and pen position while sending.
+   * Queries are mixed in with outgoing commands and answered on a background thread, see StatusMonitor
+   * @param intervalMillis time between polls
+   * @return the monitor, add listeners to it
+   */
+  public StatusMonitor monitorStatus(long intervalMillis) {
+    if (status != null) status.stop();
+    status = new StatusMonitor(this, port, intervalMillis);
+    status.start();
+    return status;
+  }
+
+  /**
+   * @return the status monitor, null if monitorStatus() was never called
+   */
+  public StatusMonitor status() {
+    return status;
+  }
+
+  /**
+   * Send a statement built by one of the drawing methods
+   * @param statement the hpgl to send
+   * @param start System.nanoTime() from when the statement was started, for the encode timing
+   */
+  private void send(String statement, long start) {
+    if (metrics != null) metrics.encode.record(System.nanoTime() - start);
+
+    if (trace != null) trace.command(statement);
+    write(statement);
+  }
+
+  /**
+   * Send debug output somewhere else, a file for example. Pass null to turn tracing off
+   * @param _trace the trace to log commands to
+   */
+  public void trace(Trace _trace) {
+    if (trace != null && trace != _trace) trace.close();
+    trace = _trace;
+  }
+
+  /**
+   * @return the trace debug output goes to, null when not debugging
+   */
+  public Trace trace() {
+    return trace;
+  }
+
+  /**
+   * Start keeping runtime metrics, see Metrics
+   * @return the metrics for this plotter
+   */
+  public Metrics enableMetrics() {
+    if (metrics == null) metrics = new Metrics();
+    return metrics;
+  }
+
+  /**
+   * @return the metrics for this plotter, null if they were never enabled
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  //Jobs
+
+  /**
+   * Start collecting drawing commands into a job instead of sending them.
+   * Lines, polylines, polygons, rects, circles and arcs are collected as paths,
+   * everything else is still sent to the plotter right away.
+   */
+  public void beginJob() {
+    job = new Job();
+  }
+
+  /**
+   * Stop collecting drawing commands
+   * @return the job with everything drawn since beginJob()
+   */
+  public Job endJob() {
+    Job finished = job;
+    job = null;
+    return finished == null ? new Job() : finished;
+  }
+
+  /**
+   * Send a job to the plotter as is, call optimize() on it first to cut down on travel
+   * @param j the job to plot
+   */
+  public void plot(Job j) {
+    long start = System.nanoTime();
+    if (j.size() > 0) pen = j.pen(j.size() - 1);
+
+    if (j.spilled()) { //too big for one string, send it in pieces as it's encoded
+      long[] since = { start };
+      j.encode(encoding(), velocity, new StringBuilder(), 1 << 16, chunk -> {
+        send(chunk, since[0]);
+        since[0] = System.nanoTime();
+      });
+      speedClass = -1;
+      return;
+    }
+
+    send(j.toHpgl(encoding(), velocity), start);
+    speedClass = -1; //jobs end back at the default speed
+  }
+
+  /**
+   * Choose how polylines, polygons and jobs are sent. The compact encodings round to whole plotter units
+   * @param _encoding ABSOLUTE, RELATIVE or POLYLINE_ENCODED
+   */
+  public void encoding(Encoding _encoding) {
+    encoding = _encoding;
+  }
+
+  /**
+   * @return the encoding that's actually used, POLYLINE_ENCODED falls back to RELATIVE on HPGL1 plotters
+   */
+  public Encoding encoding() {
+    return encoding == Encoding.POLYLINE_ENCODED && !hpgl2 ? Encoding.RELATIVE : encoding;
+  }
+
+  /**
+   * Tell the library the plotter understands HPGL/2, off by default since the HP7475A is HPGL1
+   * @param _hpgl2 true for HPGL/2 plotters
+   */
+  public void hpgl2(boolean _hpgl2) {
+    hpgl2 = _hpgl2;
+  }
+
+  /**
+   * Slow the pen down for short segments and sharp corners, and speed it up on long straight runs.
+   * Applies to polylines, polygons, shapes, stroke font labels and jobs, pass null to turn it off.
+   * VS is only sent when the speed changes, so the plotter stays at the last speed between drawing calls
+   * @param _velocity the planner to use, VelocityPlanner.HP7475A() for the HP7475A
+   */
+  public void velocityPlanner(VelocityPlanner _velocity) {
+    if (_velocity != velocity) resetSpeed(); //classes mean different speeds in another planner
+    velocity = _velocity;
+  }
+
+  /**
+   * Put the plotter back at its default speed, if the planner left it at another one
+   */
+  public void resetSpeed() {
+    if (speedClass == -1) return;
+    speedClass = -1;
+    send("VS;", System.nanoTime());
+  }
+
+  //an encoder for drawing right away, carrying on at the speed the plotter was left at
+  private PathEncoder encoder(StringBuilder statement) {
+    PathEncoder encoder = new PathEncoder(encoding(), statement, velocity);
+    if (velocity != null) encoder.speedClass = speedClass;
+    return encoder;
+  }
+
+  //end what encoder() started, remembering the speed for next time instead of resetting it
+  private void finish(PathEncoder encoder) {
+    encoder.finish(false);
+    speedClass = encoder.speedClass;
+  }
+
+  //send a polyline in pixels with one of the compact encodings, or with speed changes
+  private void sendEncoded(PVector[] vertices, int count, boolean close, long start) {
+    sendPath(toPlotter(vertices, count, close), start);
+  }
+
+  //send a path in plotter units with the current encoding
+  private void sendPath(float[] xy, long start) {
+    StringBuilder statement = new StringBuilder(xy.length * 4);
+    PathEncoder encoder = encoder(statement);
+    encoder.path(xy, xy.length);
+    finish(encoder);
+    send(statement.toString(), start);
+  }
+
+  private PVector[] vertices(PShape s) {
+    PVector[] vertices = new PVector[s.getVertexCount()];
+    for (int i = 0; i < vertices.length; i++) vertices[i] = s.getVertex(i);
+    return vertices;
+  }
+
+  /**
+   * A renderer that plots whatever the sketch draws, use it with beginRecord(), see PlotterGraphics
+   * @return a recorder for this plotter, sized to the sketch
+   */
+  public PlotterGraphics recorder() {
+    PlotterGraphics recorder = new PlotterGraphics(this);
+    recorder.setParent(myParent);
+    recorder.setPrimary(false);
+    recorder.setSize(myParent.width, myParent.height);
+    return recorder;
+  }
+
+  //convert x,y pairs from pixels to plotter units, in place
+  void toPlotter(float[] xy) {
+    //the transform, scale and offset folded into one multiply per vertex
+    float a = scale * matrix.m00, b = scale * matrix.m01, c = scale * matrix.m02 + xMin;
+    float d = scale * matrix.m10, e = scale * matrix.m11, f = scale * matrix.m12 + yMin;
+
+    for (int i = 0; i < xy.length; i += 2) {
+      float x = xy[i], y = xy[i + 1];
+      xy[i] = a * x + b * y + c;
+      xy[i + 1] = d * x + e * y + f;
+    }
+  }
+
+  //vertices in pixels to x,y pairs in plotter units, closing the path if asked
+  private float[] toPlotter(PVector[] vertices, int count, boolean close) {
+    float[] xy = new float[(count + (close ? 1 : 0)) * 2];
+    for (int i = 0; i < count; i++) {
+      xy[i * 2] = vertices[i].x;
+      xy[i * 2 + 1] = vertices[i].y;
+    }
+    if (close) {
+      xy[count * 2] = xy[0];
+      xy[count * 2 + 1] = xy[1];
+    }
+    toPlotter(xy);
+    return xy;
+  }
+
+  /**
+   * Draw labels as paths with the built in stroke font instead of the plotter's own font.
+   * They go through jobs like any other path and don't resend the size for every label
+   * @param _strokeFont true to use the stroke font
+   */
+  public void strokeFont(boolean _strokeFont) {
+    strokeFont = _strokeFont;
+  }
+
+  //label text size to cap height in plotter units, same sizing label() asks the plotter for
+  float capHeight(float size) {
+    return size * 0.0264f * 1.32f * 400;
+  }
+
+  //copy a path in plotter units into dest, turned with the transform and moved over by x,y
+  private float[] place(float[] path, float x, float y, float[] dest) {
+    for (int i = 0; i < path.length; i += 2) {
+      float px = path[i], py = path[i + 1];
+      dest[i] = matrix.m00 * px + matrix.m01 * py + x;
+      dest[i + 1] = matrix.m10 * px + matrix.m11 * py + y;
+    }
+    return dest;
+  }
+
+  //turn paths about their origin
+  private static float[][] turn(float[][] paths, float angle) {
+    float cos = (float) Math.cos(angle), sin = (float) Math.sin(angle);
+    float[][] turned = new float[paths.length][];
+    for (int p = 0; p < paths.length; p++) {
+      float[] path = paths[p], xy = new float[path.length];
+      for (int i = 0; i < path.length; i += 2) {
+        xy[i] = cos * path[i] - sin * path[i + 1];
+        xy[i + 1] = sin * path[i] + cos * path[i + 1];
+      }
+      turned[p] = xy;
+    }
+    return turned;
+  }
+
+  //add a path in plotter units to the current job
+  private void record(float[] xy) {
+    job.add(xy, pen);
+  }
+
+  //add a path in pixels to the current job, closing it if asked
+  private void record(PVector[] vertices, int count, boolean close) {
+    record(toPlotter(vertices, count, close));
+  }
+
+  //points along an arc, one chord at most chord degrees apart, angles in degrees
+  private static float[] chords(float x, float y, float radius, float startAngle, float sweep, float chord) {
+    int steps = Math.max(1, (int) Math.ceil(Math.abs(sweep) / Math.max(chord, 0.5f)));
+    float[] xy = new float[(steps + 1) * 2];
+    for (int i = 0; i <= steps; i++) {
+      double a = Math.toRadians(startAngle + sweep * i / steps);
+      xy[i * 2] = x + radius * (float) Math.cos(a);
+      xy[i * 2 + 1] = y + radius * (float) Math.sin(a);
+    }
+    return xy;
+  }
+
+  //break an arc into chords so it can go in a job, center and radius in plotter units, angles in degrees
+  private void recordArc(float x, float y, float radius, float startAngle, float sweep, float chord) {
+    record(chords(x, y, radius, startAngle, sweep, chord));
+  }
+
+  //an ellipse or elliptical arc in pixels, for when the transform stretches circles out of round
+  private void sendArc(float x, float y, float radius, float startAngle, float sweep, float chord, long start) {
+    float[] xy = chords(x, y, radius, startAngle, sweep, chord);
+    toPlotter(xy);
+
+    if (job != null) {
+      record(xy);
+    } else {
+      sendPath(xy, start);
+    }
   }
 
   /**
@@ -69,21 +414,111 @@ public class Plotter {
   }
 
   /**
-   * given a x pixel value, will return a plotter scaled x value 
+   * given a pixel location, will return a plotter scaled x value, after the transform
    *
    * @return a float value scaled to the printer's number system 
    */
-  private float convertX(float value) { //convert pixel x value to plot x value
-    return convert(value)+xMin;
+  private float convertX(float x, float y) { //convert pixel location to plot x value
+    return scale * matrix.m00 * x + scale * matrix.m01 * y + (scale * matrix.m02 + xMin);
   }
 
   /**
-   * given a y pixel value, will return a plotter scaled y value 
+   * given a pixel location, will return a plotter scaled y value, after the transform
    *
    * @return a float value scaled to the printer's number system 
    */
-  private float convertY(float value) { //convert pixel y value to plot y value
-    return convert(value)+yMin;
+  private float convertY(float x, float y) { //convert pixel location to plot y value
+    return scale * matrix.m10 * x + scale * matrix.m11 * y + (scale * matrix.m12 + yMin);
+  }
+
+  //Transforms, kept here and applied to every point so nothing extra goes to the plotter
+
+  /**
+   * Save the current transform, same as Processing's pushMatrix()
+   */
+  public void pushMatrix() {
+    matrixStack.add(matrix.get());
+  }
+
+  /**
+   * Go back to the transform from the last pushMatrix()
+   */
+  public void popMatrix() {
+    if (matrixStack.isEmpty()) {
+      throw new RuntimeException("Too many calls to popMatrix(), and not enough to pushMatrix().");
+    }
+    matrix = matrixStack.remove(matrixStack.size() - 1);
+  }
+
+  /**
+   * Move everything drawn after this
+   * @param tx pixels to move along x
+   * @param ty pixels to move along y
+   */
+  public void translate(float tx, float ty) {
+    matrix.translate(tx, ty);
+  }
+
+  /**
+   * Rotate everything drawn after this around the origin, unlike rotatePlotter() any angle works
+   * @param angle the angle in radians
+   */
+  public void rotate(float angle) {
+    matrix.rotate(angle);
+  }
+
+  /**
+   * Scale everything drawn after this
+   * @param s the scale factor
+   */
+  public void scale(float s) {
+    matrix.scale(s);
+  }
+
+  /**
+   * Scale everything drawn after this, circles and arcs turn into ellipses drawn as lines
+   * @param sx the scale factor along x
+   * @param sy the scale factor along y
+   */
+  public void scale(float sx, float sy) {
+    matrix.scale(sx, sy);
+  }
+
+  /**
+   * Back to no transform
+   */
+  public void resetMatrix() {
+    matrix.reset();
+  }
+
+  //true if the transform keeps circles round, only rotation, uniform scale and translation
+  private boolean conformal() {
+    return matrix.m00 == matrix.m11 && matrix.m01 == -matrix.m10;
+  }
+
+  //true if the transform keeps rectangles lined up with the axes
+  private boolean axisAligned() {
+    return matrix.m01 == 0 && matrix.m10 == 0;
+  }
+
+  //how much the transform scales lengths, exact when conformal()
+  private float matrixScale() {
+    return (float) Math.sqrt(Math.abs(matrix.determinant()));
+  }
+
+  //how far the transform rotates things, in radians
+  private float matrixRotation() {
+    return (float) Math.atan2(matrix.m10, matrix.m00);
+  }
+
+  //true if the transform flips things over, like scale(1, -1)
+  private boolean mirrored() {
+    return matrix.determinant() < 0;
+  }
+
+  //where an angle in radians points after the transform, in degrees, a mirror runs angles the other way
+  private float wedgeAngle(float angle) {
+    return PApplet.degrees(mirrored() ? matrixRotation() - angle : matrixRotation() + angle);
   }
 
   //Plotter Utility Methods
@@ -94,6 +529,8 @@ public class Plotter {
    */
   public void selectPen(int slot) {
     if (slot >= 0 && slot <= 6 ) {
+      pen = slot;
+      if (job != null) return; //the job swaps pens itself
       write("SP" + slot + ";");
     } else {
       System.out.println("Your pen selection of " + slot + " isn't a valid pen slot. Using default pen instead.");
@@ -106,10 +543,10 @@ public class Plotter {
    * @param y the y lcoation to move to
    */
   public void sendTo(float x, float y){
-    String statement = "PU" + convertX(x) + "," + convertY(y) + ";";
+    long start = System.nanoTime();
+    String statement = "PU" + convertX(x, y) + "," + convertY(x, y) + ";";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -117,9 +554,9 @@ public class Plotter {
    *
    */
   public void lineType(){ //no params, reset to default
+    long start = System.nanoTime();
     String statement = "LT;";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -127,9 +564,9 @@ public class Plotter {
    * @param mode int between 0 and 6 to set line mode, https://www.isoplotec.co.jp/HPGL/eHPGL.htm#-LT(Line%20Type)
    */
   public void lineType(int mode){
+    long start = System.nanoTime();
     String statement = "LT" + mode + ";"; //no mode means a 4% space
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -138,9 +575,9 @@ public class Plotter {
    * @param space float representing spacing. A percent of the total line length, i.e. 10 would space the dashes 10% of the total line length
    */
   public void lineType(int mode, float space){ //space is a percent from p1 to p2
+    long start = System.nanoTime();
     String statement = "LT" + mode + "," + space + ";";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -160,7 +597,7 @@ public class Plotter {
    * @param angle the angle of the fil
    * @return a string of hpgl commands for fills
    */
-  public String fillType(int model, float space, float angle){ //fill type 3(hatching) or 4(crosshatch),
+  public String fillType(int model, float space, float angle){ //fill type 3(hatching) or 4(crosshatch), space in pixels
     String statement = "FT" + model + "," + convert(space) + "," + angle +";";
     return statement;
   }
@@ -170,9 +607,9 @@ public class Plotter {
    * @param theta the angle of rotation expressed as an int
    */
   public void rotatePlotter(int theta){ //right now only works with 90 degrees and messes up p2
+    long start = System.nanoTime();
     String statement ="RO" + theta  + ";";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   //Drawing Commands
@@ -185,15 +622,20 @@ public class Plotter {
    * @param yEnd the vertical ending point of the line
    */
   public void drawLine(float xStart, float yStart, float xEnd, float yEnd) {
+    long start = System.nanoTime();
+    if (job != null) {
+      record(new float[] { convertX(xStart, yStart), convertY(xStart, yStart), convertX(xEnd, yEnd), convertY(xEnd, yEnd) });
+      return;
+    }
+
     //build a statement string so that only one write needs to be made to the plotter
     //start the command, pen up, move to start location
-    String statement = "PU" + convertX(xStart) + "," + convertY(yStart) + ";";
+    String statement = "PU" + convertX(xStart, yStart) + "," + convertY(xStart, yStart) + ";";
 
     //pen down, move to end location, put pen up
-    statement += "PD" + convertX(xEnd) + "," + convertY(yEnd) + ";PU;";
+    statement += "PD" + convertX(xEnd, yEnd) + "," + convertY(xEnd, yEnd) + ";PU;";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
   }
 
   /**
@@ -202,10 +644,10 @@ public class Plotter {
    * @param y y location of drawing point
    */
   public void drawTo(float x, float y){
+    long start = System.nanoTime();
     //problem here???????
-    String statement = "PD;PA" + convertX(x) + "," + convertY(y) + ";";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    String statement = "PD;PA" + convertX(x, y) + "," + convertY(x, y) + ";";
+    send(statement, start);
   }
 
   /**
@@ -213,13 +655,23 @@ public class Plotter {
    * @param vertices An array of PVectors
    */
   public void drawLines(PVector[] vertices) {
+    long start = System.nanoTime();
+    if (job != null) {
+      record(vertices, vertices.length, false);
+      return;
+    }
+    if (encoding != Encoding.ABSOLUTE || velocity != null) {
+      sendEncoded(vertices, vertices.length, false, start);
+      return;
+    }
+
     //start the statement, pen up and move to first location, pen down, ready for next location
-    String statement = "PU"+ convertX(vertices[0].x) + "," + convertY(vertices[0].y) + ";PD";
+    String statement = "PU"+ convertX(vertices[0].x, vertices[0].y) + "," + convertY(vertices[0].x, vertices[0].y) + ";PD";
 
     //loop through the rest of the locations, add the x and y coordinate for each to the statement
     for (int i = 1; i < vertices.length; i++) {
-      float x = convertX(vertices[i].x);
-      float y = convertY(vertices[i].y);
+      float x = convertX(vertices[i].x, vertices[i].y);
+      float y = convertY(vertices[i].x, vertices[i].y);
 
       statement += (x + "," + y);
 
@@ -231,8 +683,7 @@ public class Plotter {
 
     statement += ";PU;"; //close statement and pen up
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
   }
 
   /**
@@ -240,13 +691,23 @@ public class Plotter {
    * @param vertices An arrayList of PVectors
    */
   public void drawLines(ArrayList<PVector> vertices) {
+    long start = System.nanoTime();
+    if (job != null) {
+      record(vertices.toArray(new PVector[0]), vertices.size(), false);
+      return;
+    }
+    if (encoding != Encoding.ABSOLUTE || velocity != null) {
+      sendEncoded(vertices.toArray(new PVector[0]), vertices.size(), false, start);
+      return;
+    }
+
     PVector origin = vertices.get(0);
-    String statement = "PU;PA"+ convertX(origin.x) + "," + convertY(origin.y) + ";";
+    String statement = "PU;PA"+ convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PD;"; //clear any polygon
 
     for (int i = 1; i < vertices.size(); i++) {
-      float x = convertX(vertices.get(i).x);
-      float y = convertY(vertices.get(i).y);
+      float x = convertX(vertices.get(i).x, vertices.get(i).y);
+      float y = convertY(vertices.get(i).x, vertices.get(i).y);
 
       statement += (x + "," + y);
 
@@ -258,8 +719,7 @@ public class Plotter {
 
     statement += ";PU;"; //close statement and pen up
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -269,12 +729,21 @@ public class Plotter {
    * @param diam the diameter of the circle
    */
   public void drawCircle(float x, float y, float diam) {
+    long start = System.nanoTime();
+    if (!conformal()) { //the transform stretches it into an ellipse, drawn in chords instead
+      sendArc(x, y, diam/2, 0, 360, 5, start);
+      return;
+    }
+
     //convert the given pixel dimension to the printer dimensions
-    float radius = convert(diam/2);
+    float radius = convert(diam/2) * matrixScale();
+    if (job != null) {
+      recordArc(convertX(x, y), convertY(x, y), radius, 0, 360, 5); //5 degrees is the hpgl default chord
+      return;
+    }
     //put pen at x,y, draw a circle with specified radius
-    String statement = "PA" + convertX(x) + "," + convertY(y) + ";" + "CI" + radius + ";";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    String statement = "PA" + convertX(x, y) + "," + convertY(x, y) + ";" + "CI" + radius + ";";
+    send(statement, start);
   }
 
   /**
@@ -285,12 +754,21 @@ public class Plotter {
    * @param res resolution of the circle
    */
   public void drawCircle(float x, float y, float diam, float res) {
+    long start = System.nanoTime();
+    if (!conformal()) { //the transform stretches it into an ellipse, drawn in chords instead
+      sendArc(x, y, diam/2, 0, 360, res, start);
+      return;
+    }
+
     //convert the given pixel dimension to the printer dimensions
-    float radius = convert(diam/2);
+    float radius = convert(diam/2) * matrixScale();
+    if (job != null) {
+      recordArc(convertX(x, y), convertY(x, y), radius, 0, 360, res);
+      return;
+    }
     //put pen at x,y, draw a circle with specified radius
-    String statement = "PA" + convertX(x) + "," + convertY(y) + ";" + "CI" + radius + "," + res + ";";
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    String statement = "PA" + convertX(x, y) + "," + convertY(x, y) + ";" + "CI" + radius + "," + res + ";";
+    send(statement, start);
   }
 
   /**
@@ -301,16 +779,16 @@ public class Plotter {
    * @param model the fill type, 1 or 2
    */
   public void fillCircle(float _x, float _y, float diam, int model) {
-    float radius = convert(diam/2);
-    float x = convertX(_x);
-    float y = convertY(_y);
+    long start = System.nanoTime();
+    float radius = convert(diam/2) * matrixScale(); //stays round whatever the transform
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
 
     String statement = "PU;PA" + x + "," + y + ";"; //put pen at circle center xy
     statement += fillType(model); //setup fill
     statement += "WG" + radius + ",0,360;"; //uses the wedge command to draw a circle
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -323,16 +801,16 @@ public class Plotter {
    * @param angle the angle of the fill
    */
   public void fillCircle(float _x, float _y, float diam, int model, float space, float angle){
-    float radius = convert(diam/2);
-    float x = convertX(_x);
-    float y = convertY(_y);
+    long start = System.nanoTime();
+    float radius = convert(diam/2) * matrixScale(); //stays round whatever the transform
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
 
     String statement = "PU;PA" + x + "," + y + ";"; //put pen at circle center xy
-    statement += fillType(model,convert(space),angle); //setup fill
+    statement += fillType(model,space,angle); //setup fill
     statement += "WG" + radius + ",0,360;"; //uses the wedge command to draw a circle
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -344,19 +822,19 @@ public class Plotter {
    * @param _sweepAngle the end angle of the arc in radians
    */
   public void drawWedge(float _x, float _y, float _dia, float _startAngle, float _sweepAngle){
-    float x = convertX(_x);
-    float y = convertY(_y);
-    float radius = convert(_dia)/2;
+    long start = System.nanoTime();
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
+    float radius = convert(_dia)/2 * matrixScale();
 
     //assume that angles are in radians
-    int startAngle = (int) PApplet.degrees(_startAngle); //convert from radians to degrees
-    int sweepAngle = (int) PApplet.degrees(_sweepAngle); //this is the sweep of the angle
+    int startAngle = (int) wedgeAngle(_startAngle); //convert from radians to degrees, after the transform
+    int sweepAngle = (int) PApplet.degrees(mirrored() ? -_sweepAngle : _sweepAngle); //this is the sweep of the angle
 
     String statement = "PU; PA" + x + "," + y + ";";
     statement += "EW" + radius + "," + startAngle + "," + sweepAngle + ";";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -369,19 +847,19 @@ public class Plotter {
    * @param model Fill type, 1 or 2
    */
   public void fillWedge(float _x, float _y, float _dia, float _startAngle, float _sweepAngle, int model) {
-    float x = convertX(_x);
-    float y = convertY(_y);
-    float radius = convert(_dia)/2;
+    long start = System.nanoTime();
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
+    float radius = convert(_dia)/2 * matrixScale();
 
-    int startAngle = (int) PApplet.degrees(_startAngle); //convert from radians to degrees
-    int sweepAngle = (int) PApplet.degrees(_sweepAngle); //this is the sweep of the angle
+    int startAngle = (int) wedgeAngle(_startAngle); //convert from radians to degrees, after the transform
+    int sweepAngle = (int) PApplet.degrees(mirrored() ? -_sweepAngle : _sweepAngle); //this is the sweep of the angle
 
     String statement = "PU;PA" + x + "," + y + ";"; //put pen at circle center xy
     statement += fillType(model); //setup fill
     statement += "WG" + radius + "," + startAngle + "," + sweepAngle + ";";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -396,19 +874,19 @@ public class Plotter {
    * @param angle angle of the fill
    */
   public void fillWedge(float _x, float _y, float _dia, float _startAngle, float _sweepAngle, int model, float space, float angle) {
-    float x = convertX(_x);
-    float y = convertY(_y);
-    float radius = convert(_dia)/2;
+    long start = System.nanoTime();
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
+    float radius = convert(_dia)/2 * matrixScale();
 
-    int startAngle = (int) PApplet.degrees(_startAngle); //convert from radians to degrees
-    int sweepAngle = (int) PApplet.degrees(_sweepAngle); //this is the sweep of the angle
+    int startAngle = (int) wedgeAngle(_startAngle); //convert from radians to degrees, after the transform
+    int sweepAngle = (int) PApplet.degrees(mirrored() ? -_sweepAngle : _sweepAngle); //this is the sweep of the angle
 
     String statement = "PU;PA" + x + "," + y + ";"; //put pen at circle center xy
-    statement += fillType(model,convert(space),angle); //setup fill
+    statement += fillType(model,space,angle); //setup fill
     statement += "WG" + radius + "," + startAngle + "," + sweepAngle + ";";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   /**
@@ -419,16 +897,32 @@ public class Plotter {
    * @param h the height of the rectangle
    */
   public void drawRect(float x, float y, float w, float h){
+    long start = System.nanoTime();
+    if (!axisAligned()) { //turned by the transform, ER only does upright rectangles
+      float[] outline = { x, y, x + w, y, x + w, y + h, x, y + h, x, y };
+      toPlotter(outline);
+      if (job != null) {
+        record(outline);
+      } else {
+        sendPath(outline, start); //a plain path, the HP7475A has no polygon mode
+      }
+      return;
+    }
+    if (job != null) {
+      float x0 = convertX(x, y), y0 = convertY(x, y), x1 = x0 + convert(w) * matrix.m00, y1 = y0 + convert(h) * matrix.m11;
+      record(new float[] { x0, y0, x1, y0, x1, y1, x0, y1, x0, y0 });
+      return;
+    }
+
     String statement = "";
-    float xStart = convertX(x);
-    float yStart = convertY(y);
-    float xEnd = convert(w);
-    float yEnd = convert(h);
+    float xStart = convertX(x, y);
+    float yStart = convertY(x, y);
+    float xEnd = convert(w) * matrix.m00;
+    float yEnd = convert(h) * matrix.m11;
 
     statement += "PU;PA" + xStart + "," + yStart + ";PD;" + "ER" + xEnd + "," + yEnd + ";PU;";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   //fill rect, fill types 1 and 2
@@ -441,21 +935,25 @@ public class Plotter {
    * @param model The fill type, 1 or 2
    */
   public void fillRect(float x, float y, float w, float h, int model){
+    if (!axisAligned()) { //turned by the transform, RR only does upright rectangles
+      hatchRect(x, y, w, h, model, 0, 0);
+      return;
+    }
+    long start = System.nanoTime();
     //setup the filltype
     String statement = "";
     statement += fillType(model);
 
     //setup the coordinates
-    float xStart = convertX(x);
-    float yStart = convertY(y);
-    float xEnd = convert(w);
-    float yEnd = convert(h);
+    float xStart = convertX(x, y);
+    float yStart = convertY(x, y);
+    float xEnd = convert(w) * matrix.m00;
+    float yEnd = convert(h) * matrix.m11;
 
     statement += "PU;PA" + xStart + "," + yStart + ";PD;";
     statement += "RR" + xEnd + "," + yEnd + ";PU;";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   //fill rect, for filltypes 3 and 4 which need a spaceing and angle
@@ -470,21 +968,101 @@ public class Plotter {
    * @param angle The angle of the fill
    */
   public void fillRect(float x, float y, float w, float h, int model, float space, float angle){
+    if (!axisAligned()) {
+      hatchRect(x, y, w, h, model, space, angle);
+      return;
+    }
+    long start = System.nanoTime();
     //setup the filltype
     String statement = "";
-    statement += fillType(model,convert(space),angle);
+    statement += fillType(model,space,angle);
 
     //setup the coordinates
-    float xStart = convertX(x);
-    float yStart = convertY(y);
-    float xEnd = convert(w);
-    float yEnd = convert(h);
+    float xStart = convertX(x, y);
+    float yStart = convertY(x, y);
+    float xEnd = convert(w) * matrix.m00;
+    float yEnd = convert(h) * matrix.m11;
 
-    statement += "PU:" + xStart + "," + yStart + ";PD";
+    statement += "PU;PA" + xStart + "," + yStart + ";PD;";
     statement += "RR" + xEnd + "," + yEnd + ";PU;";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
+  }
+
+  //a filled rect the transform turns, drawn as hatch lines since HPGL1 can't fill polygons either,
+  //spacing and angle follow FT, solid fills are hatched at the width of a standard 0.3mm pen
+  private void hatchRect(float x, float y, float w, float h, int model, float space, float angle) {
+    long start = System.nanoTime();
+    float[] outline = { x, y, x + w, y, x + w, y + h, x, y + h };
+    toPlotter(outline);
+
+    float gap;
+    if (model < 3) {
+      gap = 12; //0.3mm
+      angle = 0;
+    } else if (space > 0) {
+      gap = convert(space);
+    } else { //FT's default, 1% of the diagonal
+      gap = (float) Math.hypot(xMax - xMin, yMax - yMin) / 100;
+    }
+    gap = Math.max(gap, 1);
+
+    ArrayList<float[]> lines = new ArrayList<float[]>();
+    hatch(outline, gap, angle, model != 2, lines);
+    if (model == 4) hatch(outline, gap, angle + 90, true, lines); //crosshatch
+
+    if (job != null) {
+      for (float[] line : lines) record(line);
+      return;
+    }
+
+    StringBuilder statement = new StringBuilder();
+    PathEncoder encoder = encoder(statement);
+    for (float[] line : lines) encoder.path(line, line.length);
+    finish(encoder);
+    send(statement.toString(), start);
+  }
+
+  //lines gap apart at angle degrees across a convex outline in plotter units,
+  //every other one reversed when alternate is set so the pen zigzags instead of going back each time
+  private static void hatch(float[] outline, float gap, float angle, boolean alternate, ArrayList<float[]> lines) {
+    double a = Math.toRadians(angle);
+    float dx = (float) Math.cos(a), dy = (float) Math.sin(a); //along the lines
+    float nx = -dy, ny = dx; //across them
+    int n = outline.length / 2;
+
+    float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      float t = outline[i * 2] * nx + outline[i * 2 + 1] * ny;
+      lo = Math.min(lo, t);
+      hi = Math.max(hi, t);
+    }
+
+    boolean reversed = false;
+    int count = (int) Math.ceil((hi - lo) / gap);
+    for (int k = 0; k < count; k++) {
+      float t = lo + (k + 0.5f) * gap;
+
+      //where the line crosses the outline, measured along it
+      float from = Float.MAX_VALUE, to = -Float.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        int j = (i + 1) % n;
+        float ti = outline[i * 2] * nx + outline[i * 2 + 1] * ny;
+        float tj = outline[j * 2] * nx + outline[j * 2 + 1] * ny;
+        if (ti == tj || (ti - t) * (tj - t) > 0) continue;
+        float f = (t - ti) / (tj - ti);
+        float px = outline[i * 2] + f * (outline[j * 2] - outline[i * 2]);
+        float py = outline[i * 2 + 1] + f * (outline[j * 2 + 1] - outline[i * 2 + 1]);
+        float along = px * dx + py * dy;
+        from = Math.min(from, along);
+        to = Math.max(to, along);
+      }
+      if (from >= to) continue;
+
+      float s0 = reversed ? to : from, s1 = reversed ? from : to;
+      lines.add(new float[] { s0 * dx + t * nx, s0 * dy + t * ny, s1 * dx + t * nx, s1 * dy + t * ny });
+      if (alternate) reversed = !reversed;
+    }
   }
 
   /**
@@ -492,23 +1070,32 @@ public class Plotter {
    * @param vertices An array of PVectors for the cordinates
    */
   public void drawPoly(PVector[] vertices) {
-    String statement = "PU;PA"+ convertX(vertices[0].x) + "," + convertY(vertices[0].y) + ";";
+    long start = System.nanoTime();
+    if (job != null) {
+      record(vertices, vertices.length, true);
+      return;
+    }
+    if (encoding != Encoding.ABSOLUTE || velocity != null) { //drawn once as a closed path rather than with polygon mode
+      sendEncoded(vertices, vertices.length, true, start);
+      return;
+    }
+
+    String statement = "PU;PA"+ convertX(vertices[0].x, vertices[0].y) + "," + convertY(vertices[0].x, vertices[0].y) + ";";
     statement += "PM0;PD;"; //clear any polygon
 
     /* //loop through the rest of the locations, add the x and y coordinate for each to the statement */
     for (int i = 0; i < vertices.length; i++) {
-      float x = convertX(vertices[i].x);
-      float y = convertY(vertices[i].y);
+      float x = convertX(vertices[i].x, vertices[i].y);
+      float y = convertY(vertices[i].x, vertices[i].y);
 
       statement += ("PA" + x + "," + y + ";");
     }
 
     //return to start
-    statement += "PA"+ convertX(vertices[0].x) + "," + convertY(vertices[0].y) + ";";
+    statement += "PA"+ convertX(vertices[0].x, vertices[0].y) + "," + convertY(vertices[0].x, vertices[0].y) + ";";
     statement += "PU;PM2;EP;"; //pen up, close polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
   }
 
   /**
@@ -516,20 +1103,29 @@ public class Plotter {
    * @param vertices An ArrayList of PVectors for the cordinates
    */
   public void drawPoly(ArrayList<PVector> vertices) {
+    long start = System.nanoTime();
+    if (job != null) {
+      record(vertices.toArray(new PVector[0]), vertices.size(), true);
+      return;
+    }
+    if (encoding != Encoding.ABSOLUTE || velocity != null) { //drawn once as a closed path rather than with polygon mode
+      sendEncoded(vertices.toArray(new PVector[0]), vertices.size(), true, start);
+      return;
+    }
+
     PVector origin = vertices.get(0);
-    String statement = "PU;PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    String statement = "PU;PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM0;PD;"; //clear any polygon
 
     for (PVector v : vertices) {
-      statement += ("PA" + convertX(v.x) + "," + convertY(v.y) + ";");
+      statement += ("PA" + convertX(v.x, v.y) + "," + convertY(v.x, v.y) + ";");
     }
 
     //return to start
-    statement += "PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    statement += "PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PU;PM2;EP;"; //pen up, close polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
   }
 
   /**
@@ -537,22 +1133,33 @@ public class Plotter {
    * @param s PShape to draw
    */
   public void drawShape(PShape s){
+    long start = System.nanoTime();
+    if (job != null) {
+      PVector[] vertices = vertices(s);
+      record(vertices, vertices.length, true);
+      return;
+    }
+    if (encoding != Encoding.ABSOLUTE || velocity != null) {
+      PVector[] vertices = vertices(s);
+      sendEncoded(vertices, vertices.length, true, start);
+      return;
+    }
+
     PVector origin = s.getVertex(0);
-    String statement = "PU;PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    String statement = "PU;PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM0;PD;"; //clear any polygon and start polygon mode
 
     //getVertexCount()  Returns the total number of vertices as an int
     for (int i = 0; i < s.getVertexCount(); i++) {
       PVector v = s.getVertex(i); //current vertex
-      statement += ("PA" + convertX(v.x) + "," + convertY(v.y) + ";");
+      statement += ("PA" + convertX(v.x, v.y) + "," + convertY(v.x, v.y) + ";");
     }
 
     //return to start
-    statement += "PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    statement += "PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PU;PM2;EP;"; //pen up, close polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
   }
 
   //doesn't seem to work with HPGL1 and the 7475A
@@ -564,24 +1171,24 @@ public class Plotter {
    * @param angle The angle of the fill
    */
   public void fillPoly(PVector[] vertices, int model, float space, float angle){
+    long start = System.nanoTime();
     //define poly with pen up, then fill?
-    String statement = "PU;PA"+ convertX(vertices[0].x) + "," + convertY(vertices[0].y) + ";";
+    String statement = "PU;PA"+ convertX(vertices[0].x, vertices[0].y) + "," + convertY(vertices[0].x, vertices[0].y) + ";";
 
     statement += "PM0;"; //clear any polygon, don't put pen down?
 
     for (int i = 1; i < vertices.length; i++) {
-      float x = convertX(vertices[i].x);
-      float y = convertY(vertices[i].y);
+      float x = convertX(vertices[i].x, vertices[i].y);
+      float y = convertY(vertices[i].x, vertices[i].y);
 
       statement += ("PA" + x + "," + y + ";");
     }
 
     statement += "PM2;"; //pen up, fill polygon
-    statement += fillType(model, convert(space), angle);
+    statement += fillType(model, space, angle);
     statement += "FP;"; //pen up, fill polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
 
   }
 
@@ -593,24 +1200,23 @@ public class Plotter {
    * @param angle The angle of the fill in degrees
    */
   public void fillPoly(ArrayList<PVector> vertices, int model, float space, float angle){
+    long start = System.nanoTime();
     //define poly with pen up, then fill?
     PVector origin = vertices.get(0);
-    String statement = "PU;PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    String statement = "PU;PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM0;"; //clear any polygon, don't put pen down?
 
     for (PVector v : vertices) {
-      statement += ("PA" + convertX(v.x) + "," + convertY(v.y) + ";");
+      statement += ("PA" + convertX(v.x, v.y) + "," + convertY(v.x, v.y) + ";");
     }
 
-    int spaceInt = (int) convert(space);
-    statement += "PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    statement += "PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM1;"; //pen up, fill polygon
     statement += "PM2;"; //pen up, fill polygon
-    statement += fillType(model, spaceInt, angle);
+    statement += fillType(model, space, angle);
     statement += "FP;"; //pen up, fill polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement); //send the statement to the plotter
+    send(statement, start); //send the statement to the plotter
 
   }
 
@@ -620,23 +1226,23 @@ public class Plotter {
    * @param model Fill model 1 or 2
    */
   public void fillPoly(ArrayList<PVector> vertices, int model){
+    long start = System.nanoTime();
     //define poly with pen up, then fill?
     PVector origin = vertices.get(0);
-    String statement = "PU;PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    String statement = "PU;PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM0;"; //clear any polygon, don't put pen down?
 
     for (PVector v : vertices) {
-      statement += ("PA" + convertX(v.x) + "," + convertY(v.y) + ";");
+      statement += ("PA" + convertX(v.x, v.y) + "," + convertY(v.x, v.y) + ";");
     }
 
-    statement += "PA" + convertX(origin.x) + "," + convertY(origin.y) + ";";
+    statement += "PA" + convertX(origin.x, origin.y) + "," + convertY(origin.x, origin.y) + ";";
     statement += "PM1;"; //pen up, fill polygon
     statement += "PM2;"; //pen up, fill polygon
     statement += fillType(model);
     statement += "FP;"; //pen up, fill polygon
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
 
   }
 
@@ -649,23 +1255,33 @@ public class Plotter {
    * @param _end The end of the arc in radians
    */
   public void drawArc(float _x, float _y, float _size, float _start, float _end) {
-    float x = convertX(_x);
-    float y = convertY(_y);
-    float radius = convert(_size)/2;
-
+    long start = System.nanoTime();
     int sweep = (int) PApplet.degrees(_end - _start); //this is the swep of the angle in degrees
+    if (!conformal()) { //the transform stretches it out of round, drawn in chords instead
+      sendArc(_x, _y, _size/2, PApplet.degrees(_start), sweep, 5, start);
+      return;
+    }
+
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
+    float radius = convert(_size)/2 * matrixScale();
+    float startAngle = _start + matrixRotation();
+
+    if (job != null) {
+      recordArc(x, y, radius, PApplet.degrees(startAngle), sweep, 5);
+      return;
+    }
 
     //in hpgl present location becomes the start of the sweep
     //calculate where the pen should start
-    float yStart = PApplet.sin(_start) * radius + y;
-    float xStart = PApplet.cos(_start) * radius + x;
+    float yStart = PApplet.sin(startAngle) * radius + y;
+    float xStart = PApplet.cos(startAngle) * radius + x;
 
     //send the pen to the start location
     String statement = "PU;PA" + xStart + "," + yStart + ";PD;";
     statement += "AA" + x + "," + y + "," + sweep + ";PU;";
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
+    send(statement, start);
   }
 
   //Labels
@@ -678,29 +1294,55 @@ public class Plotter {
    * @param _size The the textsize of the label 
    */
   public void label(String text, float _x, float _y, float _size){
-    System.out.println(_x);
-    System.out.println(_y);
-    System.out.println("before converting");
-    float x = convertX(_x);
-    float y = convertY(_y);
+    label(text, _x, _y, _size, 0);
+  }
+
+  /**
+   * Draw text labels running at an angle
+   * @param text The text to write
+   * @param _x The x location of the label
+   * @param _y The y location of the label
+   * @param _size The the textsize of the label
+   * @param _angle Direction of the text in radians, on top of any rotation in the transform
+   */
+  public void label(String text, float _x, float _y, float _size, float _angle){
+    long start = System.nanoTime();
+    float x = convertX(_x, _y);
+    float y = convertY(_x, _y);
     float tWidth = _size * 0.0264f;  //set label width to global text size, pixel to cm conversion
     float tHeight = tWidth * 1.32f; //based on HPGL default, height is 1.32 times the width, so testing that
-    System.out.println("after converting");
-    
-    System.out.println("starting string");
+
+    if (strokeFont) {
+      float[][] paths = StrokeFont.layout(text, tHeight * 400); //400 plotter units to a cm
+      if (_angle != 0) paths = turn(paths, _angle);
+      if (job != null) {
+        for (float[] path : paths) record(place(path, x, y, new float[path.length]));
+        return;
+      }
+
+      StringBuilder statement = new StringBuilder();
+      PathEncoder encoder = encoder(statement);
+      float[] xy = new float[0];
+      for (float[] path : paths) {
+        if (xy.length < path.length) xy = new float[path.length];
+        encoder.path(place(path, x, y, xy), path.length);
+      }
+      finish(encoder);
+      send(statement.toString(), start);
+      return;
+    }
+
+    //the transform scales and turns the plotter's own font
+    float size = matrixScale();
+    float turn = matrixRotation() + _angle;
+
     String statement = "PU;PA" + x + "," + y + ";";
+    if (turn != 0) statement += "DI" + PApplet.cos(turn) + "," + PApplet.sin(turn) + ";";
     statement += "SS;";
-    
-    // System.out.println(tWidth);
-    // System.out.println(tHeight);
-    statement += "SI" + tWidth + "," + tHeight + ";";
-    System.out.println("here?");
-    System.out.println(statement);
+    statement += "SI" + tWidth * size + "," + tHeight * size + ";";
     statement += "LB" + text + (char) 3;
-    System.out.println(statement);
+    if (turn != 0) statement += "DI;"; //back to horizontal for the next label
 
-    if(DEBUG) System.out.println(statement);
-    write(statement);
-    System.out.println("end of label func");
+    send(statement, start);
   }
 }
@@ -0,0 +1,259 @@
+package processing2hpgl;
+
+import processing.core.*;
+import java.util.ArrayList;
+
+/**
+ * A renderer that plots whatever Processing draws, so a sketch doesn't have to call
+ * line() and plotter.drawLine() for every shape. Lines, rects, ellipses, arcs,
+ * beginShape()/vertex() shapes and text are picked up along with the current transform.
+ * Outlines are collected into a job and sent optimized when recording ends,
+ * or added to the plotter's job if beginJob() was called. Fills are left to the screen.
+ *
+ * beginRecord(plotter.recorder()); ... endRecord();
+ *
+ * or with createGraphics(width, height, "processing2hpgl.PlotterGraphics") followed by plotter(yourPlotter).
+ */
+public class PlotterGraphics extends PGraphics {
+  Plotter plotter;
+  Job job = new Job(); //used when the plotter isn't collecting a job itself
+
+  PMatrix2D matrix = new PMatrix2D();
+  ArrayList<PMatrix2D> matrixStack = new ArrayList<PMatrix2D>();
+
+  static final int CIRCLE_SEGMENTS = 72; //5 degree chords, same as the hpgl default for CI
+
+  /**
+   * Used by createGraphics(), call plotter() before drawing
+   */
+  public PlotterGraphics() {
+  }
+
+  /**
+   * PlotterGraphics Constructor
+   * @param _plotter the plotter to draw on
+   */
+  public PlotterGraphics(Plotter _plotter) {
+    plotter = _plotter;
+  }
+
+  /**
+   * Choose the plotter to draw on
+   * @param _plotter the plotter
+   */
+  public void plotter(Plotter _plotter) {
+    plotter = _plotter;
+  }
+
+  public boolean displayable() {
+    return false;
+  }
+
+  public boolean is2D() {
+    return true;
+  }
+
+  public boolean is3D() {
+    return false;
+  }
+
+  public void beginDraw() {
+    checkSettings();
+    resetMatrix();
+    vertexCount = 0;
+  }
+
+  /**
+   * Sends everything drawn since beginDraw(), unless the plotter is collecting a job
+   */
+  public void endDraw() {
+    if (plotter != null && job.size() > 0) {
+      plotter.plot(job.optimize());
+    }
+    job = new Job();
+  }
+
+  //Shapes, everything built from vertices ends up here
+
+  public void endShape(int mode) {
+    if (stroke && plotter != null) {
+      int n = vertexCount;
+
+      switch (shape) {
+        case POINTS:
+          for (int i = 0; i < n; i++) path(i, i);
+          break;
+        case LINES:
+          for (int i = 0; i + 1 < n; i += 2) path(i, i + 1);
+          break;
+        case TRIANGLES:
+          for (int i = 0; i + 2 < n; i += 3) path(i, i + 1, i + 2, i);
+          break;
+        case TRIANGLE_STRIP:
+          if (n >= 3) path(0, 1);
+          for (int i = 2; i < n; i++) path(i - 2, i, i - 1);
+          break;
+        case TRIANGLE_FAN:
+          for (int i = 2; i < n; i++) path(0, i - 1, i, 0);
+          break;
+        case QUADS:
+          for (int i = 0; i + 3 < n; i += 4) path(i, i + 1, i + 2, i + 3, i);
+          break;
+        case QUAD_STRIP:
+          if (n >= 4) path(0, 1);
+          for (int i = 2; i + 1 < n; i += 2) path(i - 2, i, i + 1, i - 1);
+          break;
+        default: //POLYGON
+          if (n >= 2) {
+            int[] ids = new int[mode == CLOSE ? n + 1 : n];
+            for (int i = 0; i < n; i++) ids[i] = i;
+            if (mode == CLOSE) ids[n] = 0;
+            path(ids);
+          }
+      }
+    }
+    vertexCount = 0;
+  }
+
+  //a path through some of the stored vertices
+  void path(int... ids) {
+    float[] xy = new float[ids.length * 2];
+    for (int i = 0; i < ids.length; i++) {
+      xy[i * 2] = vertices[ids[i]][X];
+      xy[i * 2 + 1] = vertices[ids[i]][Y];
+    }
+    add(xy);
+  }
+
+  //a path in pixels, transformed and then added to the plotter's job if it has one open
+  void add(float[] xy) {
+    for (int i = 0; i < xy.length; i += 2) {
+      float x = xy[i], y = xy[i + 1];
+      xy[i] = matrix.multX(x, y);
+      xy[i + 1] = matrix.multY(x, y);
+    }
+
+    plotter.toPlotter(xy);
+    if (plotter.job != null) {
+      plotter.job.add(xy, plotter.pen);
+    } else {
+      job.add(xy, plotter.pen);
+    }
+  }
+
+  protected void ellipseImpl(float x, float y, float w, float h) {
+    arcImpl(x, y, w, h, 0, TWO_PI, OPEN);
+  }
+
+  protected void arcImpl(float x, float y, float w, float h, float start, float stop, int mode) {
+    if (!stroke || plotter == null) return;
+
+    float rx = w / 2, ry = h / 2;
+    float cx = x + rx, cy = y + ry;
+    int segments = Math.max(1, (int) Math.ceil(CIRCLE_SEGMENTS * (stop - start) / TWO_PI));
+    boolean full = stop - start >= TWO_PI - 0.0001f;
+    boolean pie = mode == PIE && !full;
+    boolean chord = mode == CHORD && !full;
+
+    float[] xy = new float[(segments + 1 + (pie ? 2 : 0) + (chord ? 1 : 0)) * 2];
+    int at = 0;
+    if (pie) {
+      xy[at++] = cx;
+      xy[at++] = cy;
+    }
+    for (int i = 0; i <= segments; i++) {
+      float a = start + (stop - start) * i / segments;
+      xy[at++] = cx + rx * (float) Math.cos(a);
+      xy[at++] = cy + ry * (float) Math.sin(a);
+    }
+    if (pie) {
+      xy[at++] = cx;
+      xy[at++] = cy;
+    }
+    if (chord) {
+      xy[at++] = xy[0];
+      xy[at++] = xy[1];
+    }
+    add(xy);
+  }
+
+  //Text, as stroke font paths when the plotter uses it, otherwise handed to label() at the transformed spot and angle
+
+  protected void textLineImpl(char[] buffer, int start, int stop, float x, float y) {
+    if (plotter == null) return;
+    String text = new String(buffer, start, stop - start);
+
+    if (plotter.strokeFont) { //real paths, so they pick up the whole transform and join the job
+      for (float[] path : StrokeFont.layout(text, plotter.capHeight(textSize) / plotter.scale)) {
+        float[] xy = new float[path.length];
+        for (int i = 0; i < path.length; i += 2) {
+          xy[i] = path[i] + x;
+          xy[i + 1] = path[i + 1] + y;
+        }
+        add(xy);
+      }
+      return;
+    }
+
+    float size = textSize * (float) Math.sqrt(Math.abs(matrix.determinant()));
+    float angle = (float) Math.atan2(matrix.m10, matrix.m00); //keep the text running the way the transform turns it
+    plotter.label(text, matrix.multX(x, y), matrix.multY(x, y), size, angle);
+  }
+
+  //Transforms, kept here so vertices can be mapped as they come in
+
+  public void pushMatrix() {
+    matrixStack.add(matrix.get());
+  }
+
+  public void popMatrix() {
+    if (matrixStack.isEmpty()) {
+      throw new RuntimeException("Too many calls to popMatrix(), and not enough to pushMatrix().");
+    }
+    matrix = matrixStack.remove(matrixStack.size() - 1);
+  }
+
+  public void translate(float tx, float ty) {
+    matrix.translate(tx, ty);
+  }
+
+  public void rotate(float angle) {
+    matrix.rotate(angle);
+  }
+
+  public void scale(float s) {
+    matrix.scale(s);
+  }
+
+  public void scale(float sx, float sy) {
+    matrix.scale(sx, sy);
+  }
+
+  public void shearX(float angle) {
+    matrix.shearX(angle);
+  }
+
+  public void shearY(float angle) {
+    matrix.shearY(angle);
+  }
+
+  public void resetMatrix() {
+    matrix.reset();
+  }
+
+  public void applyMatrix(PMatrix2D source) {
+    matrix.apply(source);
+  }
+
+  public void applyMatrix(float n00, float n01, float n02, float n10, float n11, float n12) {
+    matrix.apply(n00, n01, n02, n10, n11, n12);
+  }
+
+  public PMatrix2D getMatrix() {
+    return matrix.get();
+  }
+
+  public void setMatrix(PMatrix2D source) {
+    matrix.set(source);
+  }
+}
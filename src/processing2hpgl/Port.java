@@ -0,0 +1,53 @@
+package processing2hpgl;
+
+import processing.serial.*;
+
+/**
+ * Whatever the plotter is hooked up to. Usually a Serial port, but anything that can
+ * take hpgl and hand back the plotter's replies will do.
+ */
+public interface Port {
+  /**
+   * Send hpgl to the plotter
+   * @param hpgl the commands to send
+   */
+  void write(String hpgl);
+
+  /**
+   * @return how many bytes the plotter has sent back that haven't been read yet
+   */
+  int available();
+
+  /**
+   * @return the next byte from the plotter, -1 if there isn't one
+   */
+  int read();
+
+  /**
+   * @return the time in milliseconds, status polls are timed with it. The wall clock unless the port keeps its own
+   */
+  default long millis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Wrap a processing serial port
+   * @param serial an open serial port
+   * @return a port that talks to it
+   */
+  static Port of(final Serial serial) {
+    return new Port() {
+      public void write(String hpgl) {
+        serial.write(hpgl);
+      }
+
+      public int available() {
+        return serial.available();
+      }
+
+      public int read() {
+        return serial.read();
+      }
+    };
+  }
+}
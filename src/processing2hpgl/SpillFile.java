@@ -0,0 +1,106 @@
+package processing2hpgl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Paths kept in a memory mapped temp file instead of on the heap, for jobs too big to hold in memory.
+ * Each path is stored as a point count followed by x,y floats, in the machine's byte order.
+ * The file is mapped a chunk at a time, a path never straddles two chunks.
+ * Paths are only ever appended, reads can come from several threads once writing is done.
+ */
+class SpillFile {
+  static final int CHUNK = 1 << 26; //64MB mapped at a time
+
+  Path file;
+  FileChannel channel;
+  ArrayList<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+  MappedByteBuffer writing; //the last chunk, paths get appended here
+  long mapped; //bytes of the file mapped so far
+
+  long[] index = new long[1024]; //chunk << 32 | offset in the chunk, for each path
+  int size;
+
+  SpillFile() {
+    try {
+      file = Files.createTempFile("processing2hpgl-job", ".bin");
+      file.toFile().deleteOnExit();
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't create a file to spill the job to", e);
+    }
+  }
+
+  /**
+   * Append a path
+   * @param xy x,y pairs
+   * @return the path's index
+   */
+  int add(float[] xy) {
+    int bytes = 4 + xy.length * 4;
+    if (writing == null || writing.remaining() < bytes) map(Math.max(CHUNK, bytes));
+
+    if (size == index.length) {
+      long[] grown = new long[index.length * 2];
+      System.arraycopy(index, 0, grown, 0, size);
+      index = grown;
+    }
+    index[size] = (long) (chunks.size() - 1) << 32 | writing.position();
+
+    writing.putInt(xy.length / 2);
+    writing.asFloatBuffer().put(xy);
+    writing.position(writing.position() + xy.length * 4);
+    return size++;
+  }
+
+  //start a new chunk after the last one, whatever was left of that one goes unused
+  void map(int bytes) {
+    try {
+      writing = channel.map(FileChannel.MapMode.READ_WRITE, mapped, bytes);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't spill the job to " + file, e);
+    }
+    writing.order(ByteOrder.nativeOrder());
+    chunks.add(writing);
+    mapped += bytes;
+  }
+
+  /**
+   * Read a path back
+   * @param i which path
+   * @return a new array of x,y pairs
+   */
+  float[] path(int i) {
+    long at = index[i];
+    ByteBuffer chunk = chunks.get((int) (at >>> 32)).duplicate().order(ByteOrder.nativeOrder());
+    chunk.position((int) at);
+    float[] xy = new float[chunk.getInt() * 2];
+    chunk.asFloatBuffer().get(xy);
+    return xy;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Close and delete the file. The mapping itself goes away when the chunks are garbage collected
+   */
+  void delete() {
+    chunks.clear();
+    writing = null;
+    try {
+      channel.close();
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      //left for deleteOnExit
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package processing2hpgl;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps an eye on the plotter while a job streams out. Every so often status (OS),
+ * error (OE) and position (OA) queries are slipped in between outgoing commands,
+ * nothing waits for the answers, they're read and parsed on a background thread.
+ * Listeners hear about status changes, errors and the pen position,
+ * and the plotter can hold off sending while the device reports an error.
+ * The free space in the plotter's buffer is asked for too (ESC.B), it's what Metrics reports as the queue depth.
+ *
+ * Start one with Plotter.monitorStatus(). Don't read the port from the sketch while it runs,
+ * the monitor needs every reply.
+ */
+public class StatusMonitor {
+
+  /**
+   * Gets told what the plotter reports. Called from the monitor's thread, or from the drawing thread
+   * when a reply is picked up right after a write.
+   */
+  public interface Listener {
+    /**
+     * @param status the OS status byte
+     */
+    default void status(int status) { }
+
+    /**
+     * @param code the OE error number, never 0
+     * @param meaning what the error means
+     */
+    default void error(int code, String meaning) { }
+
+    /**
+     * @param x pen x in plotter units
+     * @param y pen y in plotter units
+     * @param penDown true if the pen is down
+     */
+    default void position(float x, float y, boolean penDown) { }
+  }
+
+  /** OS bit that's set when the pen is down */
+  public static final int STATUS_PEN_DOWN = 1;
+  /** OS bit that's set after IN, until the status is read */
+  public static final int STATUS_INITIALIZED = 8;
+  /** OS bit that's set when the plotter is ready for data */
+  public static final int STATUS_READY = 16;
+  /** OS bit that's set when there's an error, read OE to find out what */
+  public static final int STATUS_ERROR = 32;
+
+  static final String[] ERRORS = {
+    "no error",
+    "instruction not recognized",
+    "wrong number of parameters",
+    "out of range parameter",
+    "unknown error 4",
+    "unknown character set",
+    "position overflow",
+    "buffer overflow"
+  };
+
+  static final String POLL = "OS;OE;OA;";
+  static final String BUFFER_SPACE = (char) 27 + ".B"; //answered as soon as it arrives, ahead of anything buffered
+  static final String BUFFER_SIZE = (char) 27 + ".L";
+
+  final Plotter plotter;
+  final Port port;
+  final ArrayList<Listener> listeners = new ArrayList<Listener>();
+  final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>(); //queries waiting for a reply, in order
+
+  long interval; //ms between polls
+  volatile long lastPoll;
+  volatile boolean pauseOnError = true;
+  volatile boolean paused;
+  volatile int status, error;
+  volatile float x, y;
+  volatile boolean penDown;
+  volatile long timeouts;
+  volatile boolean overdue; //the poll in flight has already been counted as a timeout
+  volatile int bufferSize = -1, bufferFree = -1; //bytes, -1 until the plotter says
+
+  Thread reader;
+  volatile boolean running;
+  final StringBuilder line = new StringBuilder(); //reply read so far, lock it to read from the port
+
+  /**
+   * StatusMonitor Constructor, use Plotter.monitorStatus() instead
+   * @param _plotter the plotter to watch
+   * @param _port the port it's connected to
+   * @param _interval milliseconds between polls
+   */
+  StatusMonitor(Plotter _plotter, Port _port, long _interval) {
+    plotter = _plotter;
+    port = _port;
+    interval = _interval;
+  }
+
+  /**
+   * Listen for status, errors and position
+   * @param listener gets called from the monitor's thread
+   */
+  public synchronized void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Hold off sending when the plotter reports an error, on by default
+   * @param pause true to pause until resume() is called
+   */
+  public void pauseOnError(boolean pause) {
+    pauseOnError = pause;
+    if (!pause) resume();
+  }
+
+  /**
+   * @return true if sending is held off because of an error
+   */
+  public boolean paused() {
+    return paused;
+  }
+
+  /**
+   * Carry on sending after an error
+   */
+  public synchronized void resume() {
+    paused = false;
+    notifyAll();
+  }
+
+  /**
+   * @return the last OS status byte
+   */
+  public int status() {
+    return status;
+  }
+
+  /**
+   * @return the last OE error number, 0 is no error
+   */
+  public int error() {
+    return error;
+  }
+
+  /**
+   * @return last reported pen x in plotter units
+   */
+  public float x() {
+    return x;
+  }
+
+  /**
+   * @return last reported pen y in plotter units
+   */
+  public float y() {
+    return y;
+  }
+
+  /**
+   * @return true if the pen was down at the last report
+   */
+  public boolean penDown() {
+    return penDown;
+  }
+
+  /**
+   * @return free bytes in the plotter's buffer at the last poll, -1 before the first answer
+   */
+  public int bufferFree() {
+    return bufferFree;
+  }
+
+  /**
+   * @return how many polls took longer than five intervals to answer
+   */
+  public long timeouts() {
+    return timeouts;
+  }
+
+  //called by the plotter before each write, waits out an error if we're paused
+  void beforeWrite() {
+    if (!paused) return;
+    synchronized (this) {
+      while (paused && running) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  //called by the plotter after each write, tacks a poll on when one is due
+  void afterWrite() {
+    long now = port.millis();
+    if (now - lastPoll < interval) return;
+
+    if (!pending.isEmpty()) collect(); //answers that are already in count, however far behind the reader is
+    if (!pending.isEmpty()) { //still waiting on the last poll, a new one would only queue up behind it
+      if (!overdue && now - lastPoll >= interval * 5) {
+        overdue = true;
+        timeouts++;
+      }
+      return;
+    }
+    poll();
+  }
+
+  /**
+   * Ask for status, error and position now, without waiting for the answers
+   */
+  public void poll() {
+    lastPoll = port.millis();
+    overdue = false;
+
+    //device control queries jump the queue, only ask them when no other answers are still to come
+    String query = POLL;
+    if (pending.isEmpty()) {
+      boolean size = bufferSize < 0; //only needed once
+      if (size) pending.add("L");
+      pending.add("B");
+      query = (size ? BUFFER_SIZE : "") + BUFFER_SPACE + query;
+    }
+    pending.add("OS");
+    pending.add("OE");
+    pending.add("OA");
+    if (plotter.metrics != null) plotter.metrics.polled(query.length());
+    port.write(query);
+  }
+
+  void start() {
+    running = true;
+    reader = new Thread(this::read, "plotter-status");
+    reader.setDaemon(true); //don't keep the sketch alive
+    reader.start();
+  }
+
+  /**
+   * Stop watching, anything waiting on an error is let go
+   */
+  public void stop() {
+    running = false;
+    resume();
+  }
+
+  //reader thread, collects replies as they come in
+  void read() {
+    while (running) {
+      if (collect()) continue;
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  //read whatever the plotter has sent back a line at a time, false if there was nothing
+  boolean collect() {
+    synchronized (line) {
+      if (port.available() <= 0) return false;
+      while (port.available() > 0) {
+        int c = port.read();
+        if (c == '\r' || c == '\n') {
+          if (line.length() > 0) reply(line.toString().trim());
+          line.setLength(0);
+        } else if (c >= 0) {
+          line.append((char) c);
+        }
+      }
+      return true;
+    }
+  }
+
+  //match a reply to the oldest query still waiting, by shape as well as order:
+  //OS, OE and the buffer queries answer with one integer, OA with three numbers
+  void reply(String text) {
+    String[] parts = text.split(",");
+    String query = pending.peek();
+    if (query == null) return; //nobody asked, something the sketch sent itself
+
+    if (parts.length == 3) { //a position, skip over anything the plotter missed before it
+      while (query != null && !query.equals("OA")) {
+        pending.poll();
+        query = pending.peek();
+      }
+      if (query == null) return;
+    } else if (parts.length != 1 || query.equals("OA")) { //not the answer we're waiting for
+      if (plotter.trace != null) plotter.trace.log(Trace.Level.ERROR, "unexpected reply while waiting for " + query + ": " + text);
+      return;
+    }
+    pending.poll();
+
+    try {
+      switch (query) {
+        case "OS":
+          status = Integer.parseInt(text);
+          for (Listener l : listeners()) l.status(status);
+          if ((status & STATUS_ERROR) != 0 && pauseOnError) paused = true; //OE comes next with the details
+          break;
+        case "L":
+          bufferSize = Integer.parseInt(text);
+          break;
+        case "B":
+          bufferFree = Integer.parseInt(text);
+          if (plotter.metrics != null && bufferSize > 0) plotter.metrics.queueDepth = bufferSize - bufferFree;
+          break;
+        case "OE":
+          error = Integer.parseInt(text);
+          if (error != 0) {
+            String meaning = error < ERRORS.length ? ERRORS[error] : "unknown error " + error;
+            if (pauseOnError) paused = true;
+            if (plotter.trace != null) plotter.trace.log(Trace.Level.ERROR, "plotter error " + error + ": " + meaning);
+            for (Listener l : listeners()) l.error(error, meaning);
+          }
+          break;
+        case "OA":
+          x = Float.parseFloat(parts[0].trim());
+          y = Float.parseFloat(parts[1].trim());
+          penDown = parts[2].trim().equals("1");
+          for (Listener l : listeners()) l.position(x, y, penDown);
+          break;
+      }
+    } catch (RuntimeException e) { //garbled reply, drop it
+      if (plotter.trace != null) plotter.trace.log(Trace.Level.ERROR, "couldn't read " + query + " reply: " + text);
+    }
+  }
+
+  synchronized Listener[] listeners() {
+    return listeners.toArray(new Listener[0]);
+  }
+}
@@ -0,0 +1,215 @@
+package processing2hpgl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single line stroke font, in the spirit of the Hershey simplex fonts, for plotting text as paths.
+ * Text drawn this way goes through jobs like any other path, so it gets merged and reordered,
+ * and it doesn't need the SS/SI setup that LB labels resend every time.
+ *
+ * Glyphs sit on a grid with the baseline at 0, lower case at 8, capitals at 12 and descenders to -4.
+ * Parsed glyphs are cached, and so are laid out strings, keyed by text and size.
+ */
+public class StrokeFont {
+  static final float CAP_HEIGHT = 12; //grid units
+  static final float SPACING = 3; //gap between glyphs, grid units
+  static final float SPACE = 6; //width of a space, grid units
+  static final int LAYOUT_CACHE_SIZE = 1024;
+
+  //ascii 32 to 126, strokes split by |, points by spaces, x,y on the glyph grid
+  static final String[] GLYPHS = {
+    "", //space
+    "0,12 0,3|0,1 0,0", //!
+    "0,12 0,9|3,12 3,9", //"
+    "2,12 1,0|6,12 5,0|0,8 7,8|0,4 7,4", //#
+    "7,10 5,11 2,11 0,9 2,7 5,5 7,3 5,1 2,1 0,2|3,12 3,0", //$
+    "0,0 8,12|1,12 0,11 1,10 2,11 1,12|7,2 6,1 7,0 8,1 7,2", //%
+    "8,0 1,8 1,10 2,12 4,12 5,10 5,9 0,4 0,2 2,0 4,0 7,4", //&
+    "0,12 0,9", //'
+    "3,14 1,11 0,8 0,4 1,1 3,-2", //(
+    "0,14 2,11 3,8 3,4 2,1 0,-2", //)
+    "3,12 3,6|0,11 6,7|6,11 0,7", //*
+    "4,10 4,2|0,6 8,6", //+
+    "1,1 1,-1 0,-3", //,
+    "0,6 8,6", //-
+    "0,1 0,0", //.
+    "8,14 0,-2", ///
+    "3,12 1,11 0,8 0,4 1,1 3,0 4,0 6,1 7,4 7,8 6,11 4,12 3,12", //0
+    "1,10 3,12 3,0", //1
+    "0,10 1,11 3,12 5,12 7,11 8,9 7,7 0,0 8,0", //2
+    "1,12 7,12 4,8 6,8 7,7 8,5 8,3 7,1 5,0 3,0 1,1 0,2", //3
+    "6,0 6,12 0,3 9,3", //4
+    "7,12 1,12 0,7 2,8 5,8 7,7 8,5 8,3 7,1 5,0 3,0 1,1 0,2", //5
+    "7,11 5,12 3,12 1,11 0,8 0,3 1,1 3,0 5,0 7,1 8,3 8,4 7,6 5,7 3,7 1,6 0,4", //6
+    "0,12 8,12 3,0", //7
+    "3,12 1,11 1,8 3,7 5,7 7,8 7,11 5,12 3,12|3,7 1,6 0,4 0,2 1,1 3,0 5,0 7,1 8,2 8,4 7,6 5,7", //8
+    "8,8 7,6 5,5 3,5 1,6 0,8 0,9 1,11 3,12 5,12 7,11 8,8 8,4 7,1 5,0 3,0 1,1", //9
+    "0,8 0,7|0,1 0,0", //:
+    "1,8 1,7|1,1 1,-1 0,-3", //;
+    "8,10 0,6 8,2", //<
+    "0,8 8,8|0,4 8,4", //=
+    "0,10 8,6 0,2", //>
+    "0,9 1,11 3,12 5,12 7,11 7,8 4,6 4,3|4,1 4,0", //?
+    "6,4 5,6 3,6 2,4 2,3 3,1 5,1 6,3|6,6 6,2 7,1 9,1 10,3 10,6 9,9 7,11 4,12 3,12 1,11 0,9 0,3 1,1 3,-1 6,-1 9,0", //@
+    "0,0 4,12 8,0|1,3 7,3", //A
+    "0,0 0,12 5,12 7,11 8,9 7,7 5,6 0,6|5,6 7,5 8,3 8,2 7,1 5,0 0,0", //B
+    "8,10 7,11 5,12 3,12 1,11 0,9 0,3 1,1 3,0 5,0 7,1 8,2", //C
+    "0,0 0,12 4,12 6,11 7,10 8,8 8,4 7,2 6,1 4,0 0,0", //D
+    "8,12 0,12 0,0 8,0|0,6 5,6", //E
+    "8,12 0,12 0,0|0,6 5,6", //F
+    "8,10 7,11 5,12 3,12 1,11 0,9 0,3 1,1 3,0 5,0 7,1 8,3 8,5 5,5", //G
+    "0,0 0,12|8,0 8,12|0,6 8,6", //H
+    "0,0 0,12", //I
+    "6,12 6,3 5,1 4,0 2,0 1,1 0,3", //J
+    "0,0 0,12|8,12 0,4|3,7 8,0", //K
+    "0,12 0,0 7,0", //L
+    "0,0 0,12 5,0 10,12 10,0", //M
+    "0,0 0,12 8,0 8,12", //N
+    "3,12 1,11 0,9 0,3 1,1 3,0 5,0 7,1 8,3 8,9 7,11 5,12 3,12", //O
+    "0,0 0,12 5,12 7,11 8,9 8,8 7,6 5,5 0,5", //P
+    "3,12 1,11 0,9 0,3 1,1 3,0 5,0 7,1 8,3 8,9 7,11 5,12 3,12|5,2 8,-1", //Q
+    "0,0 0,12 5,12 7,11 8,9 8,8 7,6 5,5 0,5|4,5 8,0", //R
+    "8,10 7,11 5,12 3,12 1,11 0,10 0,8 1,7 7,5 8,4 8,2 7,1 5,0 3,0 1,1 0,2", //S
+    "4,0 4,12|0,12 8,12", //T
+    "0,12 0,3 1,1 3,0 5,0 7,1 8,3 8,12", //U
+    "0,12 4,0 8,12", //V
+    "0,12 2,0 5,12 8,0 10,12", //W
+    "0,12 8,0|8,12 0,0", //X
+    "0,12 4,6 8,12|4,6 4,0", //Y
+    "0,12 8,12 0,0 8,0", //Z
+    "3,14 0,14 0,-2 3,-2", //[
+    "0,14 8,-2", //backslash
+    "0,14 3,14 3,-2 0,-2", //]
+    "0,9 4,13 8,9", //^
+    "0,-2 8,-2", //_
+    "0,13 2,10", //`
+    "7,8 7,0|7,6 5,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //a
+    "0,12 0,0|0,6 2,8 4,8 6,7 7,5 7,3 6,1 4,0 2,0 0,2", //b
+    "7,6 5,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //c
+    "7,12 7,0|7,6 5,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //d
+    "0,4 7,4 7,5 6,7 4,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //e
+    "6,12 4,12 3,11 3,0|0,8 6,8", //f
+    "7,8 7,-1 6,-3 4,-4 2,-4 0,-3|7,6 5,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //g
+    "0,12 0,0|0,5 2,7 4,8 5,8 7,7 7,0", //h
+    "0,8 0,0|0,11 0,12", //i
+    "2,8 2,-2 1,-4 0,-4|2,11 2,12", //j
+    "0,12 0,0|6,8 0,3|2,5 7,0", //k
+    "0,12 0,0", //l
+    "0,8 0,0|0,5 2,7 3,8 4,8 6,7 6,0|6,5 8,7 9,8 10,8 12,7 12,0", //m
+    "0,8 0,0|0,5 2,7 4,8 5,8 7,7 7,0", //n
+    "3,8 1,7 0,5 0,3 1,1 3,0 4,0 6,1 7,3 7,5 6,7 4,8 3,8", //o
+    "0,8 0,-4|0,6 2,8 4,8 6,7 7,5 7,3 6,1 4,0 2,0 0,2", //p
+    "7,8 7,-4|7,6 5,8 3,8 1,7 0,5 0,3 1,1 3,0 5,0 7,2", //q
+    "0,8 0,0|0,4 1,6 3,8 5,8", //r
+    "6,7 4,8 2,8 0,7 0,5 2,4 5,4 7,3 7,1 5,0 2,0 0,1", //s
+    "2,12 2,1 3,0 5,0|0,8 5,8", //t
+    "0,8 0,2 1,0 3,0 5,1 7,3|7,8 7,0", //u
+    "0,8 3,0 6,8", //v
+    "0,8 2,0 4,8 6,0 8,8", //w
+    "0,8 7,0|7,8 0,0", //x
+    "0,8 3,0|6,8 3,0 2,-3 1,-4 0,-4", //y
+    "0,8 6,8 0,0 6,0", //z
+    "3,14 2,13 2,8 0,6 2,4 2,-1 3,-2", //{
+    "0,14 0,-2", //|
+    "0,14 1,13 1,8 3,6 1,4 1,-1 0,-2", //}
+    "0,6 1,7 3,7 5,5 7,5 8,6" //~
+  };
+
+  static final float[][][] glyphs = new float[GLYPHS.length][][]; //parsed strokes, filled in as they're used
+  static final float[] advances = new float[GLYPHS.length];
+
+  //laid out strings, least recently used drop out first
+  static final Map<String, float[][]> layouts = new LinkedHashMap<String, float[][]>(256, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, float[][]> eldest) {
+      return size() > LAYOUT_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Lay out a line of text as paths, starting at 0,0 on the baseline with y going up
+   * @param text the text
+   * @param capHeight height of the capitals, the paths come out in the same units
+   * @return the paths as x,y pairs, shared with the cache so don't change them
+   */
+  public static float[][] layout(String text, float capHeight) {
+    String key = capHeight + "|" + text;
+    synchronized (layouts) {
+      float[][] cached = layouts.get(key);
+      if (cached != null) return cached;
+    }
+
+    float scale = capHeight / CAP_HEIGHT;
+    ArrayList<float[]> paths = new ArrayList<float[]>();
+    float x = 0;
+
+    for (int i = 0; i < text.length(); i++) {
+      int g = index(text.charAt(i));
+      for (float[] stroke : glyph(g)) {
+        float[] xy = new float[stroke.length];
+        for (int j = 0; j < stroke.length; j += 2) {
+          xy[j] = (x + stroke[j]) * scale;
+          xy[j + 1] = stroke[j + 1] * scale;
+        }
+        paths.add(xy);
+      }
+      x += advances[g];
+    }
+
+    float[][] laidOut = paths.toArray(new float[paths.size()][]);
+    synchronized (layouts) {
+      layouts.put(key, laidOut);
+    }
+    return laidOut;
+  }
+
+  /**
+   * @param text the text
+   * @param capHeight height of the capitals
+   * @return how wide the text is, in the same units as capHeight
+   */
+  public static float width(String text, float capHeight) {
+    float x = 0;
+    for (int i = 0; i < text.length(); i++) {
+      int g = index(text.charAt(i));
+      glyph(g);
+      x += advances[g];
+    }
+    return x * capHeight / CAP_HEIGHT;
+  }
+
+  //anything we don't have a glyph for shows up as a question mark
+  static int index(char c) {
+    return c >= 32 && c < 32 + GLYPHS.length ? c - 32 : '?' - 32;
+  }
+
+  static synchronized float[][] glyph(int g) {
+    float[][] strokes = glyphs[g];
+    if (strokes != null) return strokes;
+
+    String data = GLYPHS[g];
+    float maxX = -SPACING;
+    if (data.isEmpty()) {
+      strokes = new float[0][];
+      maxX = SPACE - SPACING;
+    } else {
+      String[] parts = data.split("\\|");
+      strokes = new float[parts.length][];
+      for (int s = 0; s < parts.length; s++) {
+        String[] points = parts[s].split(" ");
+        strokes[s] = new float[points.length * 2];
+        for (int p = 0; p < points.length; p++) {
+          int comma = points[p].indexOf(',');
+          strokes[s][p * 2] = Float.parseFloat(points[p].substring(0, comma));
+          strokes[s][p * 2 + 1] = Float.parseFloat(points[p].substring(comma + 1));
+          maxX = Math.max(maxX, strokes[s][p * 2]);
+        }
+      }
+    }
+
+    advances[g] = maxX + SPACING;
+    glyphs[g] = strokes;
+    return strokes;
+  }
+}
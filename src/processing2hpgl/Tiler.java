@@ -0,0 +1,243 @@
+package processing2hpgl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a drawing that is bigger than the paper into a grid of sheets.
+ * Each sheet is the size of the plotter's page, neighbouring sheets share an overlap
+ * strip with registration marks in it so the prints can be lined up afterwards.
+ * Sheets are clipped and optimized on a thread pool, one task per sheet.
+ *
+ * Draw the whole artwork into a job in plotter units, as if the page went on forever
+ * to the right and up, then hand it to split().
+ */
+public class Tiler {
+  int cols, rows;
+  float overlap; //plotter units shared by neighbouring sheets
+  float markSize = 100; //half the width of a registration cross, plotter units
+  boolean marks = true;
+  int threads = Runtime.getRuntime().availableProcessors();
+
+  float xMin, yMin, sheetWidth, sheetHeight;
+
+  /**
+   * Tiler Constructor
+   * @param plotter the plotter, sets the size of each sheet
+   * @param _cols how many sheets across
+   * @param _rows how many sheets up
+   * @param _overlap how much neighbouring sheets overlap, in pixels
+   */
+  public Tiler(Plotter plotter, int _cols, int _rows, float _overlap) {
+    if (_cols < 1 || _rows < 1) {
+      throw new IllegalArgumentException("Tiler needs at least one sheet across and up, got " + _cols + " by " + _rows);
+    }
+    cols = _cols;
+    rows = _rows;
+    overlap = _overlap * plotter.scale;
+    xMin = plotter.xMin;
+    yMin = plotter.yMin;
+    sheetWidth = plotter.xMax - plotter.xMin;
+    sheetHeight = plotter.yMax - plotter.yMin;
+    if (overlap < 0 || overlap >= Math.min(sheetWidth, sheetHeight)) { //sheets would repeat the same strip or leave gaps
+      throw new IllegalArgumentException("Tiler overlap has to be at least 0 and smaller than a sheet, got " + overlap
+        + " plotter units for " + sheetWidth + " by " + sheetHeight + " sheets");
+    }
+  }
+
+  /**
+   * Turn the registration marks on or off
+   * @param _marks true to draw registration marks
+   */
+  public void marks(boolean _marks) {
+    marks = _marks;
+  }
+
+  /**
+   * Set how many threads to use, defaults to one per core
+   * @param _threads number of threads
+   */
+  public void threads(int _threads) {
+    threads = Math.max(1, _threads);
+  }
+
+  /**
+   * @return the width of the whole artwork in plotter units
+   */
+  public float artWidth() {
+    return cols * (sheetWidth - overlap) + overlap;
+  }
+
+  /**
+   * @return the height of the whole artwork in plotter units
+   */
+  public float artHeight() {
+    return rows * (sheetHeight - overlap) + overlap;
+  }
+
+  /**
+   * Split a job into one job per sheet. Sheets come back row by row, sheet (col, row) is at row * cols + col.
+   * Every sheet is already moved onto the page and optimized, ready for Plotter.plot().
+   * @param art the whole drawing in plotter units
+   * @return a list of jobs, one per sheet
+   */
+  public List<Job> split(final Job art) {
+    //bounding box of every path, so each sheet can skip what it doesn't touch
+    final float[] bounds = new float[art.size() * 4];
+    for (int i = 0; i < art.size(); i++) {
+      float[] xy = art.path(i);
+      float x0 = xy[0], y0 = xy[1], x1 = xy[0], y1 = xy[1];
+      for (int j = 2; j < xy.length; j += 2) {
+        x0 = Math.min(x0, xy[j]);
+        x1 = Math.max(x1, xy[j]);
+        y0 = Math.min(y0, xy[j + 1]);
+        y1 = Math.max(y1, xy[j + 1]);
+      }
+      bounds[i * 4] = x0;
+      bounds[i * 4 + 1] = y0;
+      bounds[i * 4 + 2] = x1;
+      bounds[i * 4 + 3] = y1;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, cols * rows));
+    try {
+      List<Future<Job>> pending = new ArrayList<Future<Job>>();
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < cols; c++) {
+          final int col = c, row = r;
+          pending.add(pool.submit(() -> sheet(art, bounds, col, row)));
+        }
+      }
+
+      List<Job> sheets = new ArrayList<Job>();
+      for (Future<Job> f : pending) {
+        sheets.add(f.get());
+      }
+      return sheets;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Tiling was interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Tiling failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  //clip everything to one sheet, move it onto the page and optimize it
+  Job sheet(Job art, float[] bounds, int col, int row) {
+    float left = xMin + col * (sheetWidth - overlap);
+    float bottom = yMin + row * (sheetHeight - overlap);
+    float right = left + sheetWidth;
+    float top = bottom + sheetHeight;
+    float dx = -col * (sheetWidth - overlap);
+    float dy = -row * (sheetHeight - overlap);
+
+    Job clipped = new Job(art.spillThreshold);
+    float[] run = new float[64];
+
+    for (int i = 0; i < art.size(); i++) {
+      if (bounds[i * 4] > right || bounds[i * 4 + 2] < left || bounds[i * 4 + 1] > top || bounds[i * 4 + 3] < bottom) continue;
+
+      float[] xy = art.path(i);
+      int pen = art.pen(i);
+      int length = 0; //length of the run we're building, pen stays down inside the sheet
+
+      for (int j = 0; j + 3 < xy.length; j += 2) {
+        float[] seg = clip(xy[j], xy[j + 1], xy[j + 2], xy[j + 3], left, bottom, right, top);
+        if (seg == null) {
+          if (length > 0) clipped.add(Arrays.copyOf(run, length), pen);
+          length = 0;
+          continue;
+        }
+
+        if (length > 0 && (run[length - 2] != seg[0] + dx || run[length - 1] != seg[1] + dy)) {
+          //segment re-enters the sheet somewhere else, start a new run
+          clipped.add(Arrays.copyOf(run, length), pen);
+          length = 0;
+        }
+        if (length + 4 > run.length) {
+          float[] grown = new float[run.length * 2];
+          System.arraycopy(run, 0, grown, 0, length);
+          run = grown;
+        }
+        if (length == 0) {
+          run[length++] = seg[0] + dx;
+          run[length++] = seg[1] + dy;
+        }
+        run[length++] = seg[2] + dx;
+        run[length++] = seg[3] + dy;
+
+        if (seg[2] != xy[j + 2] || seg[3] != xy[j + 3]) { //left the sheet
+          clipped.add(Arrays.copyOf(run, length), pen);
+          length = 0;
+        }
+      }
+      if (length > 0) clipped.add(Arrays.copyOf(run, length), pen);
+    }
+
+    if (marks) addMarks(clipped);
+    Job optimized = clipped.optimize();
+    clipped.close(); //drops the temp file if the sheet spilled
+    return optimized;
+  }
+
+  //crosses in the middle of the overlap strips, neighbouring sheets get them in the same spot on the artwork
+  void addMarks(Job job) {
+    int pen = job.size() > 0 ? job.pen(job.size() - 1) : 1; //use whatever pen is already in, saves a swap
+    float inset = overlap / 2;
+    float[] xs = { xMin + inset, xMin + sheetWidth - inset };
+    float[] ys = { yMin + inset, yMin + sheetHeight - inset };
+
+    float right = xMin + sheetWidth, top = yMin + sheetHeight;
+
+    for (float x : xs) {
+      for (float y : ys) { //keep the arms on the paper
+        float[] across = clip(x - markSize, y, x + markSize, y, xMin, yMin, right, top);
+        float[] up = clip(x, y - markSize, x, y + markSize, xMin, yMin, right, top);
+        if (across != null) job.add(across, pen);
+        if (up != null) job.add(up, pen);
+      }
+    }
+  }
+
+  /**
+   * Liang-Barsky clip of one segment to a box
+   * @return x0,y0,x1,y1 of the part inside the box, or null if it misses
+   */
+  static float[] clip(float x0, float y0, float x1, float y1, float left, float bottom, float right, float top) {
+    float dx = x1 - x0;
+    float dy = y1 - y0;
+    float t0 = 0, t1 = 1;
+    float[] p = { -dx, dx, -dy, dy };
+    float[] q = { x0 - left, right - x0, y0 - bottom, top - y0 };
+
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) return null; //parallel and outside
+        continue;
+      }
+      float t = q[i] / p[i];
+      if (p[i] < 0) {
+        if (t > t1) return null;
+        if (t > t0) t0 = t;
+      } else {
+        if (t < t0) return null;
+        if (t < t1) t1 = t;
+      }
+    }
+
+    //clamp so rounding can't push a clipped point off the paper
+    return new float[] {
+      t0 == 0 ? x0 : Math.max(left, Math.min(right, x0 + t0 * dx)),
+      t0 == 0 ? y0 : Math.max(bottom, Math.min(top, y0 + t0 * dy)),
+      t1 == 1 ? x1 : Math.max(left, Math.min(right, x0 + t1 * dx)),
+      t1 == 1 ? y1 : Math.max(bottom, Math.min(top, y0 + t1 * dy))
+    };
+  }
+}
@@ -0,0 +1,219 @@
+package processing2hpgl;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A trace log that stays out of the way. Entries go into a fixed size ring buffer
+ * and a background thread writes them out to the console or a file, so logging
+ * every command costs about as much as storing a reference.
+ * When the buffer is full new entries are dropped and counted instead of waiting.
+ * Plotters in debug mode trace every command to the console.
+ */
+public class Trace {
+  /** how much gets logged, each level includes the ones above it */
+  public enum Level { ERROR, INFO, COMMAND }
+
+  final String[] messages;
+  final Level[] levels;
+  final long[] times;
+  final AtomicLongArray published; //sequence number written into each slot, so the writer knows it's ready
+  final AtomicLong claimed = new AtomicLong(); //next sequence for producers
+  volatile long flushed; //next sequence for the writer
+  final int mask;
+
+  volatile Level level = Level.COMMAND;
+  volatile int sampleEvery = 1; //keep one command in every this many
+  final AtomicLong sampleCount = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+  long reported; //drops already noted in the output
+
+  final Writer out;
+  final boolean console; //never close System.out
+  final long started = System.nanoTime();
+  Thread writer;
+  Thread hook; //flushes on exit, removed again on close
+  volatile boolean running, closed;
+
+  /**
+   * A trace that prints to the console
+   * @param capacity how many entries the buffer holds, rounded up to a power of two
+   */
+  public Trace(int capacity) {
+    this(capacity, System.out);
+  }
+
+  /**
+   * A trace that writes to a file, the file is replaced
+   * @param capacity how many entries the buffer holds, rounded up to a power of two
+   * @param path the file to write to
+   * @throws IOException if the file can't be opened
+   */
+  public Trace(int capacity, String path) throws IOException {
+    this(capacity, new FileOutputStream(path));
+  }
+
+  /**
+   * A trace that writes to any stream
+   * @param capacity how many entries the buffer holds, rounded up to a power of two
+   * @param stream where the trace goes
+   */
+  public Trace(int capacity, OutputStream stream) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    messages = new String[size];
+    levels = new Level[size];
+    times = new long[size];
+    published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) published.set(i, -1);
+    mask = size - 1;
+    out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+    console = stream == System.out || stream == System.err;
+    start();
+  }
+
+  /**
+   * Only keep entries at this level and above
+   * @param _level the lowest level to keep
+   */
+  public void level(Level _level) {
+    level = _level;
+  }
+
+  /**
+   * Only keep one in every n commands, errors and info are always kept
+   * @param n 1 keeps everything
+   */
+  public void sample(int n) {
+    sampleEvery = Math.max(1, n);
+  }
+
+  /**
+   * @return how many entries were dropped because the buffer was full
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Log an hpgl command on its way to the plotter
+   * @param hpgl the command
+   */
+  public void command(String hpgl) {
+    if (level != Level.COMMAND) return;
+    if (sampleEvery > 1 && sampleCount.getAndIncrement() % sampleEvery != 0) return;
+    log(Level.COMMAND, hpgl);
+  }
+
+  /**
+   * Log a message
+   * @param _level how important it is
+   * @param message the message, only turned into a string if it gets kept
+   */
+  public void log(Level _level, Object message) {
+    if (_level.compareTo(level) > 0) return;
+
+    long seq;
+    do { //claim a slot, give up rather than wait if the writer is behind
+      seq = claimed.get();
+      if (seq - flushed >= messages.length) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!claimed.compareAndSet(seq, seq + 1));
+
+    int slot = (int) seq & mask;
+    messages[slot] = String.valueOf(message);
+    levels[slot] = _level;
+    times[slot] = System.nanoTime();
+    published.set(slot, seq); //hands the slot to the writer
+  }
+
+  /**
+   * Write out everything that's in the buffer right now
+   */
+  public synchronized void flush() {
+    if (closed) return;
+    try {
+      drain();
+      out.flush();
+    } catch (IOException e) {
+      System.err.println("Trace couldn't write: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stop the background writer, flushing whatever is left
+   */
+  public void close() {
+    running = false;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (hook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(hook);
+      } catch (IllegalStateException e) {
+        //already shutting down, the hook runs anyway
+      }
+      hook = null;
+    }
+    flush();
+    synchronized (this) {
+      closed = true;
+      try {
+        if (!console) out.close();
+      } catch (IOException e) {
+        System.err.println("Trace couldn't close: " + e.getMessage());
+      }
+    }
+  }
+
+  void start() {
+    running = true;
+    writer = new Thread(() -> {
+      while (running) {
+        flush();
+        LockSupport.parkNanos(50000000L); //write out every 50ms
+      }
+    }, "plotter-trace");
+    writer.setDaemon(true); //don't keep the sketch alive
+    writer.start();
+    hook = new Thread(this::flush, "plotter-trace-exit");
+    Runtime.getRuntime().addShutdownHook(hook); //don't lose the tail on exit
+  }
+
+  //write out published entries in order, stops at the first slot that isn't ready yet
+  void drain() throws IOException {
+    long seq = flushed;
+    StringBuilder line = new StringBuilder(128);
+
+    while (true) {
+      int slot = (int) seq & mask;
+      if (published.get(slot) != seq) break;
+
+      line.setLength(0);
+      line.append('[').append((times[slot] - started) / 1000000).append("ms ").append(levels[slot]).append("] ");
+      line.append(messages[slot]).append('\n');
+      messages[slot] = null; //let it be collected
+      out.write(line.toString());
+      seq++;
+      flushed = seq; //frees the slot for producers
+    }
+
+    long lost = dropped.get();
+    if (lost > reported) out.write("[trace dropped " + (lost - reported) + " entries]\n");
+    reported = lost;
+  }
+}
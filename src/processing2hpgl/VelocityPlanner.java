@@ -0,0 +1,105 @@
+package processing2hpgl;
+
+/**
+ * Picks a pen speed (VS) for each segment of a path. Long runs go fast whatever they turn into,
+ * short segments and sharp corners between them, where ink needs time to flow, go slow.
+ * Speeds are rounded to a few classes and VS is only sent when the class changes,
+ * so the plotter isn't flooded with speed commands.
+ *
+ * Turn it on with Plotter.velocityPlanner(). The speed range comes from the device,
+ * VelocityPlanner.HP7475A() is set up for the HP7475A.
+ */
+public class VelocityPlanner {
+  float minSpeed, maxSpeed; //cm per second
+  int classes;
+  float shortSegment = 40; //plotter units, this short or shorter gets the slowest speed, 1mm
+  float longSegment = 400; //plotter units, this long or longer goes full speed, 1cm
+
+  float[] speeds; //speed for each class, slowest first
+
+  /**
+   * VelocityPlanner Constructor
+   * @param _minSpeed slowest speed the plotter takes, in cm/s
+   * @param _maxSpeed fastest speed the plotter takes, in cm/s
+   * @param _classes how many different speeds to use, at least 2
+   */
+  public VelocityPlanner(float _minSpeed, float _maxSpeed, int _classes) {
+    minSpeed = _minSpeed;
+    maxSpeed = _maxSpeed;
+    classes = Math.max(2, _classes);
+
+    //spread the classes out evenly on a log scale, speed matters more at the slow end
+    speeds = new float[classes];
+    for (int k = 0; k < classes; k++) {
+      double v = minSpeed * Math.pow(maxSpeed / minSpeed, (double) k / (classes - 1));
+      speeds[k] = Math.round(v * 100) / 100f;
+    }
+  }
+
+  /**
+   * A planner for the HP7475A. It takes 0.38 to 38.1 cm/s, but pens still draw cleanly
+   * at 10 cm/s so that's the floor, going slower only costs time
+   * @return a planner with four speeds from 10 to 38.1 cm/s
+   */
+  public static VelocityPlanner HP7475A() {
+    return new VelocityPlanner(10, 38.1f, 4);
+  }
+
+  /**
+   * Set the segment lengths the speeds are scaled between
+   * @param _shortSegment this short or shorter is drawn slowest, plotter units
+   * @param _longSegment this long or longer is drawn fastest, plotter units
+   */
+  public void segments(float _shortSegment, float _longSegment) {
+    shortSegment = Math.max(_shortSegment, 1);
+    longSegment = Math.max(_longSegment, shortSegment + 1);
+  }
+
+  /**
+   * @param speedClass which class
+   * @return the VS speed for it in cm/s
+   */
+  public float speed(int speedClass) {
+    return speeds[speedClass];
+  }
+
+  /**
+   * Work out the speed class for every segment of a path
+   * @param xy the path as x,y pairs
+   * @param length how many floats of xy to use
+   * @param out gets the class of segment i (from point i to i + 1), needs room for length / 2 - 1
+   */
+  void plan(float[] xy, int length, int[] out) {
+    int segments = length / 2 - 1;
+    double logShort = Math.log(shortSegment);
+    double logRange = Math.log(longSegment) - logShort;
+    double before = 0; //turn at the start of the segment, worked out as the end of the last one
+
+    for (int i = 0; i < segments; i++) {
+      int p = i * 2;
+      float dx = xy[p + 2] - xy[p], dy = xy[p + 3] - xy[p + 1];
+      double len = Math.sqrt(dx * dx + dy * dy);
+
+      //how much room there is to speed up
+      double fraction = len <= shortSegment ? 0 : Math.min(1, (Math.log(len) - logShort) / logRange);
+
+      //how hard the corners at either end turn, a switchback means full stop,
+      //long runs have room to get up to speed between corners so they're left alone
+      double after = i < segments - 1 ? turn(xy, p, p + 2, p + 4) : 0;
+      if (fraction < 1) fraction = Math.min(fraction, 1 - Math.max(before, after) / Math.PI);
+      before = after;
+
+      out[i] = (int) Math.round(fraction * (classes - 1));
+    }
+  }
+
+  //angle the path turns through at b, 0 for straight on up to pi for doubling back
+  static double turn(float[] xy, int a, int b, int c) {
+    double ax = xy[b] - xy[a], ay = xy[b + 1] - xy[a + 1];
+    double bx = xy[c] - xy[b], by = xy[c + 1] - xy[b + 1];
+    double la = Math.sqrt(ax * ax + ay * ay), lb = Math.sqrt(bx * bx + by * by);
+    if (la == 0 || lb == 0) return 0;
+    double cos = (ax * bx + ay * by) / (la * lb);
+    return Math.acos(Math.max(-1, Math.min(1, cos)));
+  }
+}
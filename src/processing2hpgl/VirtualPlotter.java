@@ -0,0 +1,677 @@
+package processing2hpgl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * A pretend HP7475A that runs in the sketch, for trying out jobs, flow control and
+ * throughput without the real thing on a cable. Hand it to the Plotter constructor in place of a serial port.
+ *
+ * Everything happens in virtual time, nothing waits unless realTime() is set.
+ * Bytes take as long as the baud rate says to come down the line and land in an input buffer.
+ * The plotter takes commands out of the buffer one at a time and is busy for as long as
+ * the pen would take to draw them, moving with a top speed and an acceleration and stopping at every vertex.
+ * When the buffer gets close to full the plotter sends XOFF and the line waits until there's room again,
+ * turn flowControl() off and the extra bytes are dropped and counted as overflows instead.
+ *
+ * Answers OS, OE, OA, OC, OI, OP and OF from the buffer like the real plotter, and the
+ * ESC.B, ESC.E, ESC.L and ESC.O device control queries as soon as they come in.
+ * Replies only show up once the plotter has got to the query by the computer's time, reading them
+ * doesn't move time along, and monitorStatus() polls on virtual time, so monitored runs come out the same every time.
+ * Call drain() at the end to run the plotter until it's done and find out how long the job took.
+ */
+public class VirtualPlotter implements Port {
+  static final char ESC = (char) 27;
+
+  //commands the HP7475A knows, anything else is error 1
+  static final HashSet<String> HPGL1 = new HashSet<String>(Arrays.asList(
+    "AA", "AR", "CA", "CI", "CP", "CS", "DC", "DF", "DI", "DP", "DR", "DT", "EA", "ER", "EW", "FT",
+    "IM", "IN", "IP", "IW", "LB", "LT", "OA", "OC", "OD", "OE", "OF", "OH", "OI", "OO", "OP", "OS", "OW",
+    "PA", "PD", "PR", "PS", "PT", "PU", "RA", "RO", "RR", "SA", "SC", "SI", "SL", "SM", "SP", "SR", "SS",
+    "TL", "UC", "VA", "VN", "VS", "WG", "XT", "YT"));
+  //and the HPGL/2 ones this library sends when hpgl2() is on
+  static final HashSet<String> HPGL2 = new HashSet<String>(Arrays.asList("PE", "PM", "EP", "FP"));
+
+  //the line and the buffer
+  int baud = 9600;
+  int bufferSize = 1024;
+  boolean flowControl = true;
+  int xoffAt = 128; //XOFF when fewer bytes than this are free
+  int xonAt = 512; //XON again once this many are free
+  boolean hpgl2;
+  volatile double realTime; //virtual seconds per real second, 0 doesn't wait at all
+
+  //how long things take, seconds
+  double parseTime = 0.00005; //per byte taken out of the buffer
+  double commandTime = 0.001; //on top of whatever the command does
+  double penTime = 0.025; //pen up or down
+  double penChangeTime = 2.5; //put one pen away and pick up another
+
+  //the pen, plotter units and seconds
+  float maxSpeed = 38.1f; //cm/s, the fastest VS allows, pen up moves always go this fast
+  float minSpeed = 0.38f;
+  double acceleration = 784000; //plotter units/s^2, about 2g
+  float speed = maxSpeed; //current VS
+
+  //virtual time, seconds
+  double now; //the computer's side, when the last byte went out
+  double clock; //the plotter's side, how far it has got
+  double busyUntil; //when the command it's on is done
+  double busy; //total time spent running commands
+  volatile long started = System.nanoTime(); //for realTime()
+
+  //input buffer, a ring of bytes that have come in but haven't been read by the plotter
+  char[] buffer = new char[bufferSize];
+  int head, count;
+  boolean xoff;
+  int maxBuffered;
+
+  StringBuilder replies = new StringBuilder(); //what the plotter has sent back
+  int replyAt; //how much of it has been read
+
+  StringBuilder escape; //not null while reading an ESC. sequence
+
+  HpglParser parser = new HpglParser(this::execute);
+
+  //plotter state
+  float x, y;
+  boolean penDown;
+  boolean relative;
+  int pen;
+  int status = StatusMonitor.STATUS_INITIALIZED;
+  int error, ioError;
+  float charWidth = 0.187f, charHeight = 0.269f; //SI, cm
+  int fillType = 1;
+  float fillSpacing = 12; //plotter units, about a pen width for solid fills
+
+  //counts
+  long bytes, commands, overflows, xoffs, penChanges;
+  double penDownDistance, penUpDistance;
+
+  /**
+   * VirtualPlotter Constructor, a HP7475A on 9600 baud with XON/XOFF
+   */
+  public VirtualPlotter() {
+  }
+
+  /**
+   * @param _baud bits per second on the line, 8N1 so ten bits a byte
+   */
+  public synchronized void baud(int _baud) {
+    baud = _baud;
+  }
+
+  /**
+   * @param size bytes in the input buffer, the HP7475A has 1024
+   */
+  public synchronized void bufferSize(int size) {
+    bufferSize = size;
+    buffer = new char[size];
+    head = count = 0;
+  }
+
+  /**
+   * Turn XON/XOFF on or off. Off, the line keeps sending when the buffer is full and bytes are lost
+   * @param _flowControl true to hold off on XOFF
+   */
+  public synchronized void flowControl(boolean _flowControl) {
+    flowControl = _flowControl;
+  }
+
+  /**
+   * Set when XOFF and XON are sent
+   * @param _xoffAt XOFF when fewer bytes than this are free
+   * @param _xonAt XON once this many bytes are free again
+   */
+  public synchronized void xonXoff(int _xoffAt, int _xonAt) {
+    xoffAt = _xoffAt;
+    xonAt = Math.max(_xonAt, _xoffAt);
+  }
+
+  /**
+   * Accept the HPGL/2 commands the library sends to HPGL/2 plotters, PE and polygon mode
+   * @param _hpgl2 true to accept them
+   */
+  public synchronized void hpgl2(boolean _hpgl2) {
+    hpgl2 = _hpgl2;
+  }
+
+  /**
+   * Slow writes down so virtual time keeps pace with the clock on the wall, sped up by some factor.
+   * Useful for watching a job play out at the plotter's pace
+   * @param speedup virtual seconds per real second, 0 to never wait
+   */
+  public synchronized void realTime(double speedup) {
+    realTime = speedup;
+    started = System.nanoTime() - (long) (now / Math.max(speedup, 1e-9) * 1e9);
+  }
+
+  /**
+   * Set how the pen moves
+   * @param _acceleration plotter units per second squared
+   * @param _penTime seconds to lift or lower the pen
+   * @param _penChangeTime seconds to swap pens
+   */
+  public synchronized void timing(double _acceleration, double _penTime, double _penChangeTime) {
+    acceleration = _acceleration;
+    penTime = _penTime;
+    penChangeTime = _penChangeTime;
+  }
+
+  //Port
+
+  public void write(String hpgl) {
+    double sent = receive(hpgl);
+
+    if (realTime > 0) { //hold the sketch back until the wall clock catches up, without holding up the reader
+      long wait = started + (long) (sent / realTime * 1e9) - System.nanoTime();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  //bytes come down the line one at a time, returns when the last one got there
+  synchronized double receive(String hpgl) {
+    double byteTime = 10.0 / baud;
+
+    for (int i = 0; i < hpgl.length(); i++) {
+      char c = hpgl.charAt(i);
+
+      if (flowControl && xoff) { //the line waits for XON
+        while (xoff) step();
+        now = Math.max(now, clock);
+      }
+
+      now += byteTime;
+      advance(now);
+      bytes++;
+
+      if (escape != null || c == ESC) { //device control, handled as it arrives and never buffered
+        control(c);
+        continue;
+      }
+
+      if (count == bufferSize) {
+        overflows++;
+        ioError = 16; //input buffer overflow
+        continue;
+      }
+      buffer[(head + count++) % bufferSize] = c;
+      maxBuffered = Math.max(maxBuffered, count);
+      if (!xoff && bufferSize - count < xoffAt) {
+        xoff = true;
+        xoffs++;
+      }
+    }
+    return now;
+  }
+
+  //only what the plotter has answered by now on the computer's side, reading doesn't move time along
+  public synchronized int available() {
+    return replies.length() - replyAt;
+  }
+
+  /**
+   * @return virtual milliseconds on the computer's side, so status polls are timed in virtual time
+   */
+  public synchronized long millis() {
+    return (long) (now * 1000);
+  }
+
+  public synchronized int read() {
+    if (replyAt == replies.length()) return -1;
+    int c = replies.charAt(replyAt++);
+    if (replyAt == replies.length()) { //all read, start over
+      replies.setLength(0);
+      replyAt = 0;
+    }
+    return c;
+  }
+
+  //Results
+
+  /**
+   * Run the plotter until it has done everything it was sent
+   * @return the virtual time in seconds when it finished
+   */
+  public synchronized double drain() {
+    while (count > 0 || busyUntil > clock) step();
+    return clock;
+  }
+
+  /**
+   * @return virtual seconds since the start, on the computer's side of the line
+   */
+  public synchronized double time() {
+    return now;
+  }
+
+  /**
+   * @return virtual seconds the plotter has spent running commands
+   */
+  public synchronized double busyTime() {
+    return busy;
+  }
+
+  /**
+   * @return bytes that came down the line
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /**
+   * @return commands run
+   */
+  public synchronized long commands() {
+    return commands;
+  }
+
+  /**
+   * @return bytes lost because the buffer was full
+   */
+  public synchronized long overflows() {
+    return overflows;
+  }
+
+  /**
+   * @return how many times XOFF was sent
+   */
+  public synchronized long xoffs() {
+    return xoffs;
+  }
+
+  /**
+   * @return the most bytes that were ever waiting in the buffer
+   */
+  public synchronized int maxBuffered() {
+    return maxBuffered;
+  }
+
+  /**
+   * @return how many times a pen was picked up
+   */
+  public synchronized long penChanges() {
+    return penChanges;
+  }
+
+  /**
+   * @return plotter units drawn with the pen down
+   */
+  public synchronized double penDownDistance() {
+    return penDownDistance;
+  }
+
+  /**
+   * @return plotter units moved with the pen up
+   */
+  public synchronized double penUpDistance() {
+    return penUpDistance;
+  }
+
+  /**
+   * @return the last hpgl error, same as OE would say
+   */
+  public synchronized int error() {
+    return error;
+  }
+
+  /**
+   * @return where the pen is, plotter units
+   */
+  public synchronized float[] position() {
+    return new float[] { x, y };
+  }
+
+  //The plotter's side
+
+  //do the next thing, finish the current command or read a byte
+  void step() {
+    if (busyUntil > clock) {
+      advance(busyUntil);
+    } else if (count > 0) {
+      advance(clock + parseTime);
+    } else {
+      xoff = false; //nothing left to make room for
+    }
+  }
+
+  //run the plotter up to time t
+  void advance(double t) {
+    while (true) {
+      if (busyUntil > clock) {
+        if (busyUntil > t) return;
+        clock = busyUntil;
+      }
+      if (count == 0) break;
+      if (clock + parseTime > t) return;
+
+      clock += parseTime;
+      char c = buffer[head];
+      head = (head + 1) % bufferSize;
+      count--;
+      if (xoff && bufferSize - count >= xonAt) xoff = false;
+      parser.feed(c); //runs the command once it's all in
+    }
+    clock = Math.max(clock, t); //idle
+  }
+
+  //a command made it out of the buffer, work out how long it keeps the plotter busy
+  void execute(String mnemonic, float[] params, int n, String text) {
+    commands++;
+    double time = commandTime;
+
+    if (mnemonic.charAt(0) == 'O') {
+      output(mnemonic);
+    } else if (!HPGL1.contains(mnemonic) && !(hpgl2 && HPGL2.contains(mnemonic))) {
+      fail(1);
+    } else {
+      time += run(mnemonic, params, n, text);
+    }
+
+    busyUntil = clock + time;
+    busy += time;
+  }
+
+  //the command itself, returns seconds spent moving
+  @SuppressWarnings("fallthrough")
+  double run(String m, float[] p, int n, String text) {
+    double time = 0;
+
+    switch (m) {
+      case "IN":
+        status |= StatusMonitor.STATUS_INITIALIZED;
+        error = 0;
+        // fall through
+      case "DF":
+        time += pen(false);
+        relative = false;
+        speed = maxSpeed;
+        charWidth = 0.187f;
+        charHeight = 0.269f;
+        fillType = 1;
+        fillSpacing = 12;
+        break;
+
+      case "PU":
+      case "PD":
+        time += pen(m.equals("PD"));
+        // fall through
+      case "PA":
+      case "PR":
+        if (m.equals("PA")) relative = false;
+        if (m.equals("PR")) relative = true;
+        if (n % 2 != 0) fail(2);
+        for (int i = 0; i + 1 < n; i += 2) {
+          time += relative ? move(x + p[i], y + p[i + 1]) : move(p[i], p[i + 1]);
+        }
+        break;
+
+      case "PE":
+        final double[] pe = { 0 };
+        PathEncoder.decode(text, Math.round(x), Math.round(y), (px, py, down) -> {
+          pe[0] += pen(down);
+          pe[0] += move(px, py);
+        });
+        time += pe[0];
+        break;
+
+      case "SP":
+        int slot = n > 0 ? (int) p[0] : 0;
+        if (slot != pen) {
+          time += pen(false) + penChangeTime;
+          if (slot != 0) penChanges++;
+          pen = slot;
+        }
+        break;
+
+      case "VS":
+        speed = n > 0 ? Math.max(minSpeed, Math.min(maxSpeed, p[0])) : maxSpeed;
+        break;
+
+      case "SI":
+        if (n >= 2) {
+          charWidth = p[0];
+          charHeight = p[1];
+        }
+        break;
+
+      case "FT":
+        fillType = n > 0 ? (int) p[0] : 1;
+        fillSpacing = fillType >= 3 && n > 1 ? Math.max(p[1], 1) : 12;
+        break;
+
+      case "CI":
+        if (n < 1) {
+          fail(2);
+          break;
+        }
+        time += circle(Math.abs(p[0]), n > 1 ? p[1] : 5);
+        break;
+
+      case "AA":
+      case "AR":
+        if (n < 3) {
+          fail(2);
+          break;
+        }
+        float cx = m.equals("AR") ? x + p[0] : p[0];
+        float cy = m.equals("AR") ? y + p[1] : p[1];
+        float r = (float) Math.hypot(x - cx, y - cy);
+        float start = (float) Math.toDegrees(Math.atan2(y - cy, x - cx));
+        time += arc(cx, cy, r, start, p[2], n > 3 ? p[3] : 5);
+        break;
+
+      case "ER":
+      case "EA":
+      case "RR":
+      case "RA":
+        if (n < 2) {
+          fail(2);
+          break;
+        }
+        float w = m.charAt(1) == 'R' ? p[0] : p[0] - x;
+        float h = m.charAt(1) == 'R' ? p[1] : p[1] - y;
+        time += rect(w, h, m.charAt(0) == 'R');
+        break;
+
+      case "EW":
+      case "WG":
+        if (n < 3) {
+          fail(2);
+          break;
+        }
+        time += wedge(Math.abs(p[0]), p[1], p[2], n > 3 ? p[3] : 5, m.equals("WG"));
+        break;
+
+      case "LB":
+        time += label(text);
+        break;
+    }
+    return time;
+  }
+
+  //Kinematics
+
+  //time to go from a stop to a stop over some distance, accelerating up to speed and back down
+  double travel(double distance, double cmPerSecond) {
+    if (distance <= 0) return 0;
+    double v = cmPerSecond * 400; //plotter units per second
+    if (distance >= v * v / acceleration) return distance / v + v / acceleration;
+    return 2 * Math.sqrt(distance / acceleration); //never gets up to speed
+  }
+
+  //move the pen in a straight line, up or down as it is
+  double move(float tx, float ty) {
+    double d = Math.hypot(tx - x, ty - y);
+    if (penDown) {
+      penDownDistance += d;
+    } else {
+      penUpDistance += d;
+    }
+    x = tx;
+    y = ty;
+    return travel(d, penDown ? speed : maxSpeed);
+  }
+
+  double pen(boolean down) {
+    if (down == penDown) return 0;
+    penDown = down;
+    return penTime;
+  }
+
+  //circle around the pen, which ends up back in the middle the way it started
+  double circle(float r, float chord) {
+    boolean wasDown = penDown;
+    float cx = x, cy = y;
+    double time = pen(false) + move(cx + r, cy) + pen(true);
+    time += arc(cx, cy, r, 0, 360, chord);
+    return time + pen(false) + move(cx, cy) + pen(wasDown);
+  }
+
+  //chords around cx,cy from the start angle, pen stays as it is
+  double arc(float cx, float cy, float r, float start, float sweep, float chord) {
+    chord = Math.max(Math.abs(chord), 0.5f);
+    int steps = Math.max(1, (int) Math.ceil(Math.abs(sweep) / chord));
+    double time = 0;
+    for (int i = 1; i <= steps; i++) {
+      double a = Math.toRadians(start + sweep * i / steps);
+      time += move(cx + r * (float) Math.cos(a), cy + r * (float) Math.sin(a));
+    }
+    return time;
+  }
+
+  //rectangle from the pen position, filled ones are hatched a fill spacing apart
+  double rect(float w, float h, boolean fill) {
+    boolean wasDown = penDown;
+    float x0 = x, y0 = y;
+    double time = pen(true);
+    time += move(x0 + w, y0) + move(x0 + w, y0 + h) + move(x0, y0 + h) + move(x0, y0);
+
+    if (fill) {
+      int lines = (int) (Math.abs(h) / fillSpacing);
+      int passes = fillType == 4 ? 2 : 1; //crosshatch goes over it again
+      for (int pass = 0; pass < passes; pass++) {
+        for (int i = 1; i <= lines; i++) { //back and forth
+          float ly = y0 + Math.signum(h) * i * fillSpacing;
+          time += move(x, ly) + move(i % 2 == 1 ? x0 + w : x0, ly);
+        }
+        time += move(x0, y0);
+      }
+    }
+
+    return time + pen(wasDown);
+  }
+
+  //pie slice around the pen, filled ones are hatched
+  double wedge(float r, float start, float sweep, float chord, boolean fill) {
+    boolean wasDown = penDown;
+    float cx = x, cy = y;
+    double a = Math.toRadians(start);
+    double time = pen(true) + move(cx + r * (float) Math.cos(a), cy + r * (float) Math.sin(a));
+    time += arc(cx, cy, r, start, sweep, chord) + move(cx, cy);
+
+    if (fill) { //enough lines out from the middle and back to cover the area a fill spacing apart
+      double area = Math.PI * r * r * Math.min(Math.abs(sweep), 360) / 360;
+      int lines = (int) (area / fillSpacing / Math.max(r, 1)) * (fillType == 4 ? 2 : 1);
+      time += lines * travel(r, speed) * 2;
+      penDownDistance += lines * r * 2;
+    }
+
+    return time + pen(wasDown);
+  }
+
+  //text drawn stroke by stroke, the built in font stands in for the plotter's
+  double label(String text) {
+    if (text == null) return 0;
+    boolean wasDown = penDown;
+    float x0 = x, y0 = y;
+    double time = 0;
+
+    for (float[] path : StrokeFont.layout(text, charHeight * 400)) {
+      time += pen(false) + move(x0 + path[0], y0 + path[1]) + pen(true);
+      for (int i = 2; i < path.length; i += 2) time += move(x0 + path[i], y0 + path[i + 1]);
+    }
+
+    //leave the pen after the last character like LB does
+    time += pen(false) + move(x0 + StrokeFont.width(text, charHeight * 400), y0) + pen(wasDown);
+    return time;
+  }
+
+  //Replies
+
+  //an output command, the answer goes on the line back
+  void output(String m) {
+    switch (m) {
+      case "OS":
+        int s = status | (penDown ? StatusMonitor.STATUS_PEN_DOWN : 0);
+        if (count == 0) s |= StatusMonitor.STATUS_READY;
+        if (error != 0) s |= StatusMonitor.STATUS_ERROR;
+        reply(Integer.toString(s));
+        status &= ~StatusMonitor.STATUS_INITIALIZED; //cleared once it's been read
+        break;
+      case "OE":
+        reply(Integer.toString(error));
+        error = 0;
+        break;
+      case "OA":
+      case "OC":
+        reply(Math.round(x) + "," + Math.round(y) + "," + (penDown ? 1 : 0));
+        break;
+      case "OI":
+        reply("7475A");
+        break;
+      case "OP":
+        reply("250,596,10250,7796");
+        break;
+      case "OF":
+        reply("40,40");
+        break;
+      default:
+        reply("0");
+    }
+  }
+
+  void reply(String text) {
+    replies.append(text).append('\r');
+  }
+
+  void fail(int code) {
+    error = code;
+  }
+
+  //ESC. device control, answered straight away
+  void control(char c) {
+    if (escape == null) {
+      escape = new StringBuilder();
+      return;
+    }
+    escape.append(c);
+    if (escape.length() < 2) return;
+
+    char command = escape.charAt(1);
+    if ("@HIMN".indexOf(command) >= 0 && c != ':') return; //these take parameters up to a colon
+
+    switch (command) {
+      case 'B': //buffer space
+        reply(Integer.toString(bufferSize - count));
+        break;
+      case 'L': //buffer size
+        reply(Integer.toString(bufferSize));
+        break;
+      case 'O': //extended status, 8 when the buffer is empty and everything's done
+        reply(count == 0 && busyUntil <= clock ? "8" : "0");
+        break;
+      case 'E': //extended error
+        reply(Integer.toString(ioError));
+        ioError = 0;
+        break;
+    }
+    escape = null;
+  }
+}